@@ -0,0 +1,354 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+
+import com.topjohnwu.superuser.io.SuFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+//zip, apk and jar files are listed as virtual folders from their central directory, nothing is extracted
+public class ArchiveIndex {
+    private static final String[] EXTENSIONS = {".zip", ".apk", ".jar", ".apks", ".xapk"};
+    private static final int MAX_ARCHIVES = 4;
+    private static final int EOCD_SIZE = 22;
+    private static final int MAX_COMMENT = 0xFFFF;
+
+    private static final int EOCD = 0x06054b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EOCD = 0x06064b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int ENCRYPTED = 0x1; //general purpose flag 0, traditional or strong encryption
+
+    //in access order, the least recently opened archive comes first
+    private static final LinkedHashMap<String, Index> sIndexes = new LinkedHashMap<>(8, 0.75f, true);
+
+    static {
+        //an index is read again from a few kilobytes of central directory, so it goes early
+        MemoryPressure.register(tier -> {
+            if (tier >= MemoryPressure.TRIM_COMPACT) clear();
+        });
+    }
+
+    public static boolean isArchiveName(String name) {
+        String lowerName = name.toLowerCase(Locale.ROOT);
+        for (String extension : EXTENSIONS) {
+            if (lowerName.endsWith(extension)) return true;
+        }
+        return false;
+    }
+
+    //{archive path, path inside it} if path is an archive or lies in one, otherwise null
+    static String[] split(String path) {
+        int end = path.length();
+        while (end > 0) {
+            String candidate = path.substring(0, end);
+            if (isArchiveName(candidate) && new SuFile(candidate).isFile()) {
+                return new String[]{candidate, end == path.length() ? "" : path.substring(end + 1)};
+            }
+            end = path.lastIndexOf('/', end - 1);
+        }
+        return null;
+    }
+
+    //only paths with an archive name in them can be virtual, everything else costs no shell call
+    static boolean mayBeVirtual(String path) {
+        for (String name : path.split("/")) {
+            if (isArchiveName(name)) return true;
+        }
+        return false;
+    }
+
+    public static ArrayList<Bundle> getFileList(String path, long serverId) {
+        String[] parts = split(path);
+        if (parts == null) return null;
+        Index index = getIndex(parts[0]);
+        if (index == null) return null;
+        ArrayList<Entry> entries = index.folders.get(parts[1]);
+        if (entries == null) return null;
+        ArrayList<Bundle> fileList = new ArrayList<>(entries.size());
+        for (Entry entry : entries) fileList.add(entry.toBundle(parts[0], serverId));
+        return fileList;
+    }
+
+    public static Bundle getFileObject(String path, long serverId) {
+        String[] parts = split(path);
+        if (parts == null || parts[1].isEmpty()) return null;
+        Index index = getIndex(parts[0]);
+        Entry entry = index != null ? index.entries.get(parts[1]) : null;
+        return entry != null ? entry.toBundle(parts[0], serverId) : null;
+    }
+
+    //stream of the uncompressed content of one entry, only its own bytes are read from the archive
+    public static InputStream open(String path) throws IOException {
+        String[] parts = split(path);
+        if (parts == null || parts[1].isEmpty()) return null;
+        Index index = getIndex(parts[0]);
+        Entry entry = index != null ? index.entries.get(parts[1]) : null;
+        if (entry == null || entry.isDirectory) return null;
+        if (entry.method != 0 && entry.method != 8) throw new IOException("unsupported compression method " + entry.method);
+        if (entry.isEncrypted) throw new IOException("encrypted entry " + path); //would inflate to garbage
+
+        Source source = Source.open(parts[0]);
+        byte[] header = source.read(entry.headerOffset, 30);
+        if (readInt(header, 0) != LOCAL_HEADER) throw new IOException("bad local header in " + path);
+        if ((readShort(header, 6) & ENCRYPTED) != 0) throw new IOException("encrypted entry " + path);
+        long dataOffset = entry.headerOffset + 30 + readShort(header, 26) + readShort(header, 28);
+        InputStream in = source.open(dataOffset, entry.compressedSize);
+        if (entry.method == 0) return in;
+        Inflater inflater = new Inflater(true);
+        return new InflaterInputStream(in, inflater, 64 * 1024) {
+            @Override
+            public void close() throws IOException {
+                super.close();
+                inflater.end();
+            }
+        };
+    }
+
+    public static synchronized void clear() {
+        sIndexes.clear();
+    }
+
+    private static Index getIndex(String archivePath) {
+        String fingerprint = FileManager.getFingerprints(Collections.singletonList(archivePath)).get(archivePath);
+        if (fingerprint == null) return null;
+        synchronized (ArchiveIndex.class) {
+            Index index = sIndexes.get(archivePath);
+            if (index != null && index.fingerprint.equals(fingerprint)) return index;
+        }
+        try {
+            long startTime = System.nanoTime();
+            Index index = readIndex(archivePath, fingerprint);
+            Metrics.add("archive.indexReads", 1);
+            Metrics.add("archive.indexMs", (System.nanoTime() - startTime) / 1000000);
+            synchronized (ArchiveIndex.class) {
+                sIndexes.put(archivePath, index);
+                while (sIndexes.size() > MAX_ARCHIVES) sIndexes.remove(sIndexes.keySet().iterator().next());
+            }
+            return index;
+        } catch (IOException e) {
+            Trace.e("archiveIndex", archivePath, e);
+            return null;
+        }
+    }
+
+    private static Index readIndex(String archivePath, String fingerprint) throws IOException {
+        Source source = Source.open(archivePath);
+        long size = source.length();
+        if (size < EOCD_SIZE) throw new IOException("too small for a zip file");
+
+        //end of central directory record, followed by a comment of up to 64K
+        int tailSize = (int) Math.min(size, EOCD_SIZE + MAX_COMMENT);
+        long tailOffset = size - tailSize;
+        byte[] tail = source.read(tailOffset, tailSize);
+        int eocd = -1;
+        for (int i = tailSize - EOCD_SIZE; i >= 0; i--) {
+            if (readInt(tail, i) == EOCD) {
+                eocd = i;
+                break;
+            }
+        }
+        if (eocd < 0) throw new IOException("no end of central directory");
+        long count = readShort(tail, eocd + 10);
+        long directorySize = readUInt(tail, eocd + 12);
+        long directoryOffset = readUInt(tail, eocd + 16);
+
+        if (directoryOffset == 0xFFFFFFFFL || directorySize == 0xFFFFFFFFL || count == 0xFFFF) {
+            int locator = eocd - 20;
+            byte[] locatorBytes = locator >= 0 ? Arrays.copyOfRange(tail, locator, locator + 20) : source.read(tailOffset + locator, 20);
+            if (readInt(locatorBytes, 0) == ZIP64_LOCATOR) {
+                byte[] record = source.read(readLong(locatorBytes, 8), 56);
+                if (readInt(record, 0) != ZIP64_EOCD) throw new IOException("bad zip64 end of central directory");
+                count = readLong(record, 32);
+                directorySize = readLong(record, 40);
+                directoryOffset = readLong(record, 48);
+            }
+        }
+        if (directorySize > Integer.MAX_VALUE || directoryOffset + directorySize > size) throw new IOException("bad central directory");
+
+        byte[] directory = source.read(directoryOffset, (int) directorySize);
+        Metrics.add("archive.bytesRead", tailSize + directorySize);
+        Index index = new Index(fingerprint);
+        index.folders.put("", new ArrayList<>());
+        int offset = 0;
+        for (long i = 0; i < count && offset + 46 <= directory.length; i++) {
+            if (readInt(directory, offset) != CENTRAL_HEADER) throw new IOException("bad central directory entry");
+            int flags = readShort(directory, offset + 8);
+            int method = readShort(directory, offset + 10);
+            long time = dosTime(readShort(directory, offset + 14), readShort(directory, offset + 12));
+            long compressedSize = readUInt(directory, offset + 20);
+            long uncompressedSize = readUInt(directory, offset + 24);
+            int nameLength = readShort(directory, offset + 28);
+            int extraLength = readShort(directory, offset + 30);
+            int commentLength = readShort(directory, offset + 32);
+            long headerOffset = readUInt(directory, offset + 42);
+            //names are utf-8 if flag 11 is set, cp437 otherwise, which equals utf-8 for plain ascii names
+            String name = new String(directory, offset + 46, nameLength, (flags & 0x800) != 0 ? StandardCharsets.UTF_8 : StandardCharsets.ISO_8859_1);
+
+            //zip64 extra field, holds the values which are 0xFFFFFFFF in the header, in this order
+            int extra = offset + 46 + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = readShort(directory, extra);
+                int length = readShort(directory, extra + 2);
+                if (id == 0x0001) {
+                    int field = extra + 4;
+                    if (uncompressedSize == 0xFFFFFFFFL) {
+                        uncompressedSize = readLong(directory, field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = readLong(directory, field);
+                        field += 8;
+                    }
+                    if (headerOffset == 0xFFFFFFFFL) headerOffset = readLong(directory, field);
+                }
+                extra += 4 + length;
+            }
+            offset = extraEnd + commentLength;
+
+            boolean isDirectory = name.endsWith("/");
+            while (name.startsWith("/")) name = name.substring(1);
+            while (name.endsWith("/")) name = name.substring(0, name.length() - 1);
+            if (name.isEmpty() || name.contains("../")) continue;
+            index.add(new Entry(name, isDirectory, method, (flags & ENCRYPTED) != 0, time, compressedSize, uncompressedSize, headerOffset));
+        }
+        return index;
+    }
+
+    private static long dosTime(int date, int time) {
+        return new GregorianCalendar(1980 + (date >> 9), ((date >> 5) & 0xF) - 1, date & 0x1F,
+                time >> 11, (time >> 5) & 0x3F, (time & 0x1F) * 2).getTimeInMillis();
+    }
+
+    private static int readShort(byte[] b, int offset) {
+        return (b[offset] & 0xFF) | (b[offset + 1] & 0xFF) << 8;
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return readShort(b, offset) | readShort(b, offset + 2) << 16;
+    }
+
+    private static long readUInt(byte[] b, int offset) {
+        return readInt(b, offset) & 0xFFFFFFFFL;
+    }
+
+    private static long readLong(byte[] b, int offset) {
+        return readUInt(b, offset) | readUInt(b, offset + 4) << 32;
+    }
+
+    private static class Index {
+        final String fingerprint;
+        final HashMap<String, Entry> entries = new HashMap<>();
+        final HashMap<String, ArrayList<Entry>> folders = new HashMap<>();
+
+        Index(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+
+        //parent folders without an entry of their own are added as well
+        void add(Entry entry) {
+            Entry existing = entries.get(entry.name);
+            if (existing != null) {
+                if (!existing.isDirectory || !entry.isDirectory) return; //first one wins, like most unzip tools
+                existing.time = entry.time;
+                return;
+            }
+            entries.put(entry.name, entry);
+            if (entry.isDirectory) folders.putIfAbsent(entry.name, new ArrayList<>());
+            int index = entry.name.lastIndexOf('/');
+            String parent = index > 0 ? entry.name.substring(0, index) : "";
+            ArrayList<Entry> siblings = folders.get(parent);
+            if (siblings == null) {
+                add(new Entry(parent, true, 0, false, entry.time, 0, 0, 0));
+                siblings = folders.get(parent);
+                if (siblings == null) return; //parent is a file, not reachable by browsing
+            }
+            siblings.add(entry);
+        }
+    }
+
+    private static class Entry {
+        final String name;
+        final boolean isDirectory;
+        final int method;
+        final boolean isEncrypted;
+        long time;
+        final long compressedSize;
+        final long size;
+        final long headerOffset;
+
+        Entry(String name, boolean isDirectory, int method, boolean isEncrypted, long time, long compressedSize, long size, long headerOffset) {
+            this.name = name;
+            this.isDirectory = isDirectory;
+            this.method = method;
+            this.isEncrypted = isEncrypted;
+            this.time = time;
+            this.compressedSize = compressedSize;
+            this.size = size;
+            this.headerOffset = headerOffset;
+        }
+
+        Bundle toBundle(String archivePath, long serverId) {
+            Bundle bFile = new Bundle();
+            bFile.putLong("serverId", serverId);
+            bFile.putString("filePath", archivePath + "/" + name);
+            bFile.putString("fileName", name.substring(name.lastIndexOf('/') + 1));
+            bFile.putBoolean("isDirectory", isDirectory);
+            if (!isDirectory) bFile.putLong("fileSize", size);
+            bFile.putLong("fileDate", time);
+            bFile.putBoolean("isVirtual", true);
+            return bFile;
+        }
+    }
+
+    //random access to a file, directly if the app may read it and through the root file service otherwise
+    //a file read in ranges, files the app cannot read go through root
+    static class Source {
+        final String mPath;
+
+        private Source(String path) {
+            mPath = path;
+        }
+
+        static Source open(String path) {
+            return new Source(path);
+        }
+
+        long length() {
+            File file = new File(mPath);
+            return file.canRead() ? file.length() : new SuFile(mPath).length();
+        }
+
+        //length -1 reads to the end of the file
+        InputStream open(long offset, long length) throws IOException {
+            return FileManager.openFile(mPath, offset, length);
+        }
+
+        byte[] read(long offset, int length) throws IOException {
+            try (InputStream in = open(offset, length)) {
+                byte[] buf = new byte[length];
+                int done = 0;
+                while (done < length) {
+                    int len = in.read(buf, done, length - done);
+                    if (len < 0) throw new IOException("unexpected end of archive");
+                    done += len;
+                }
+                return buf;
+            }
+        }
+    }
+}
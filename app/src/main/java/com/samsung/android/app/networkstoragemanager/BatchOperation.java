@@ -0,0 +1,165 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+import com.topjohnwu.superuser.io.SuFile;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class BatchOperation implements RequestCode {
+    private static final int PARALLELISM = 4;
+    private static final long PROGRESS_INTERVAL = 100;
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(PARALLELISM);
+
+    private final int mOperation;
+    private final ArrayList<String> mSourcePaths;
+    private final String mDstFolderPath;
+    private final IProgressCallback mProgressCallback;
+    private final long mRequestId;
+    private final int mReqCode;
+    private final AtomicBoolean mCanceled;
+    private HashMap<String, String> mDevices; //source path to device id, a move renames only what stays on the destination's device
+    private String mDstDevice;
+
+    private final AtomicLong mHandledSize = new AtomicLong();
+    private final AtomicInteger mHandledCount = new AtomicInteger();
+    private long mLastProgress;
+
+    public BatchOperation(Bundle extras, IProgressCallback progressCallback, long requestId, int reqCode, AtomicBoolean canceled) {
+        mOperation = extras.getInt("operation");
+        mSourcePaths = extras.getStringArrayList("sourcePaths");
+        mDstFolderPath = extras.getString("dstFolderPath");
+        mProgressCallback = progressCallback;
+        mRequestId = requestId;
+        mReqCode = reqCode;
+        mCanceled = canceled;
+    }
+
+    public boolean run(Bundle result) {
+        ArrayList<Bundle> resultList = new ArrayList<>();
+        result.putParcelableArrayList("resultList", resultList);
+        if (mSourcePaths == null || (mOperation != DELETE && mOperation != INTERNAL_COPY && mOperation != INTERNAL_MOVE)) return false;
+        boolean isCopy = mOperation != DELETE;
+        if (isCopy && mDstFolderPath == null) return false;
+
+        //plan: every touched folder is invalidated once, the destination is created once
+        LinkedHashSet<String> parents = new LinkedHashSet<>();
+        if (mOperation != INTERNAL_COPY) {
+            for (String sourcePath : mSourcePaths) parents.add(sourcePath.substring(0, Math.max(1, sourcePath.lastIndexOf("/"))));
+        }
+        if (isCopy) {
+            parents.add(mDstFolderPath);
+            SuFile dstFolder = new SuFile(mDstFolderPath);
+            if (!dstFolder.isDirectory() && !FileManager.makeFolder(mDstFolderPath)) return false;
+        }
+        for (String parent : parents) FileManager.clearPathCache(parent, false);
+        if (mOperation == INTERNAL_MOVE) {
+            mDevices = FileManager.getDevices(mSourcePaths, false);
+            mDstDevice = FileManager.getDevices(Collections.singletonList(mDstFolderPath), true).get(mDstFolderPath);
+        }
+
+        ArrayList<Future<Boolean>> futures = new ArrayList<>();
+        for (String sourcePath : mSourcePaths) futures.add(sExecutor.submit(IoScheduler.inheritBulk(() -> runItem(sourcePath))));
+
+        boolean isSuccess = true;
+        for (int i = 0; i < futures.size(); i++) {
+            boolean itemSuccess;
+            try {
+                itemSuccess = futures.get(i).get();
+            } catch (Exception e) {
+                e.printStackTrace();
+                itemSuccess = false;
+            }
+            Bundle itemResult = new Bundle();
+            itemResult.putString("sourcePath", mSourcePaths.get(i));
+            itemResult.putBoolean("isSuccess", itemSuccess);
+            resultList.add(itemResult);
+            isSuccess &= itemSuccess;
+        }
+        publishProgress(true);
+        return isSuccess;
+    }
+
+    private boolean runItem(String sourcePath) {
+        if (mCanceled.get()) return false;
+        boolean isSuccess;
+        String fileName = sourcePath.substring(sourcePath.lastIndexOf("/") + 1);
+        switch (mOperation) {
+            case DELETE:
+                isSuccess = FileManager.delete(sourcePath);
+                break;
+            case INTERNAL_MOVE:
+                //a rename is enough within the same file system, across file systems mv would copy without progress or cancel
+                SuFile source = new SuFile(sourcePath);
+                boolean isDirectory = source.isDirectory();
+                if (mDstDevice != null && mDstDevice.equals(mDevices.get(sourcePath)) && source.renameTo(new SuFile(mDstFolderPath + "/" + fileName))) {
+                    FolderSizes.invalidateTree(sourcePath);
+                    PreviewCache.remove(sourcePath);
+                    FileIndex.onDeleted(sourcePath);
+                    FileIndex.onCreated(mDstFolderPath + "/" + fileName, isDirectory);
+                    isSuccess = true;
+                    break;
+                }
+                isSuccess = FileManager.copyFiles(sourcePath, mDstFolderPath, fileName, new ItemProgress(), mRequestId, mReqCode, 0, null, null, null, mCanceled).isSuccess
+                        && FileManager.delete(sourcePath);
+                break;
+            default:
+                isSuccess = FileManager.copyFiles(sourcePath, mDstFolderPath, fileName, new ItemProgress(), mRequestId, mReqCode, 0, null, null, null, mCanceled).isSuccess;
+                break;
+        }
+        //listings of a deleted or moved folder and of everything below it are gone, even if only a part of it was removed
+        if (mOperation != INTERNAL_COPY) CachedFileList.removeTree(sourcePath);
+        mHandledCount.incrementAndGet();
+        publishProgress(false);
+        return isSuccess;
+    }
+
+    private void publishProgress(boolean force) {
+        if (mProgressCallback == null) return;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (!force && now - mLastProgress < PROGRESS_INTERVAL) return;
+            mLastProgress = now;
+        }
+        Bundle progress = new Bundle();
+        progress.putLong("handledSize", mHandledSize.get());
+        progress.putInt("handledCount", mHandledCount.get());
+        progress.putInt("totalCount", mSourcePaths.size());
+        try {
+            mProgressCallback.onProgress(mRequestId, mReqCode, progress);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+
+    //turns the per item handledSize into deltas of the batch total
+    private class ItemProgress implements IProgressCallback {
+        private long mItemSize;
+
+        @Override
+        public void onProgress(long requestId, int reqCode, Bundle progress) {
+            long handledSize = progress.getLong("handledSize");
+            mHandledSize.addAndGet(handledSize - mItemSize);
+            mItemSize = handledSize;
+            publishProgress(false);
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+}
@@ -4,28 +4,215 @@ import android.os.Bundle;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 
 public class CachedFileList {
-    private static final HashMap<String, ArrayList<Bundle>> sCachedData = new HashMap<>();
+    private static final int FLOOR_SIZE = 16;
 
-    public static boolean contains(String path) {
+    //in access order, the least recently used listing comes first
+    private static final LinkedHashMap<String, Entry> sCachedData = new LinkedHashMap<>(64, 0.75f, true);
+    private static long sVersion;
+
+    static {
+        MemoryPressure.register(CachedFileList::trim);
+    }
+
+    //returned by findEntry if the listing is cached but has no such entry
+    public static final Bundle NOT_FOUND = new Bundle();
+
+    public static synchronized boolean contains(String path) {
         return sCachedData.containsKey(path);
     }
 
-    public static ArrayList<Bundle> get(String path) {
-        return sCachedData.get(path);
+    public static synchronized ArrayList<Bundle> get(String path) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null) return null;
+        entry.isRequested = true;
+        return entry.fileList;
+    }
+
+    //listings are replaced, never changed in place, so a returned list can be used without locking
+    public static synchronized long getVersion(String path) {
+        Entry entry = sCachedData.get(path);
+        return entry != null ? entry.version : -1;
+    }
+
+    //size of the cached listing, -1 if not cached
+    public static synchronized int getEntryCount(String path) {
+        Entry entry = sCachedData.get(path);
+        return entry != null ? entry.fileList.size() : -1;
     }
 
-    public static void removeFileList(String path) {
+    public static synchronized void removeFileList(String path) {
         sCachedData.remove(path);
     }
 
-    public static void clear() {
+    //path was deleted or renamed, so the listings of it and everything below are gone
+    public static synchronized void removeTree(String path) {
+        String prefix = path + "/";
+        Iterator<String> iterator = sCachedData.keySet().iterator();
+        while (iterator.hasNext()) {
+            String key = iterator.next();
+            if (key.equals(path) || key.startsWith(prefix)) iterator.remove();
+        }
+    }
+
+    public static synchronized void clear() {
         sCachedData.clear();
     }
 
-    public static ArrayList<Bundle> saveFileList(String filePath, ArrayList<Bundle> fileList) {
-        sCachedData.put(filePath, fileList);
+    public static synchronized void trim(int tier) {
+        Iterator<Entry> iterator = sCachedData.values().iterator();
+        int size = sCachedData.size();
+        while (iterator.hasNext()) {
+            Entry entry = iterator.next();
+            if (!entry.isRequested || (tier >= MemoryPressure.TRIM_TO_FLOOR && size > FLOOR_SIZE)) {
+                iterator.remove();
+                size--;
+            } else if (tier >= MemoryPressure.TRIM_COMPACT) {
+                entry.fileList = new ArrayList<>(entry.fileList); //drops unused capacity, the old list may still be in use
+                entry.sortOrders = null;
+                entry.names = null;
+            }
+        }
+    }
+
+    public static synchronized ArrayList<Bundle> saveFileList(String filePath, ArrayList<Bundle> fileList) {
+        return saveFileList(filePath, fileList, null);
+    }
+
+    //fingerprint of the folder taken before it was listed, null if unknown
+    public static synchronized ArrayList<Bundle> saveFileList(String filePath, ArrayList<Bundle> fileList, String fingerprint) {
+        Entry previous = sCachedData.get(filePath);
+        Entry entry = new Entry(fileList, ++sVersion, fingerprint);
+        entry.isRequested = previous == null || previous.isRequested;
+        sCachedData.put(filePath, entry);
         return fileList;
     }
+
+    //listings nobody asked for yet are the first to go on memory pressure
+    public static synchronized void prefetchFileList(String filePath, ArrayList<Bundle> fileList, String fingerprint) {
+        if (sCachedData.containsKey(filePath)) return;
+        Entry entry = new Entry(fileList, ++sVersion, fingerprint);
+        entry.isRequested = false;
+        sCachedData.put(filePath, entry);
+    }
+
+    //only stores a rescan if the listing was not patched or replaced while scanning
+    public static synchronized ArrayList<Bundle> saveFileList(String filePath, ArrayList<Bundle> fileList, long version, String fingerprint) {
+        if (getVersion(filePath) != version) return get(filePath);
+        return saveFileList(filePath, fileList, fingerprint);
+    }
+
+    public static synchronized String getFingerprint(String path) {
+        Entry entry = sCachedData.get(path);
+        return entry != null ? entry.fingerprint : null;
+    }
+
+    //a patched listing matches the folder again, as long as nothing else changed it
+    public static synchronized void setFingerprint(String path, long version, String fingerprint) {
+        Entry entry = sCachedData.get(path);
+        if (entry != null && entry.version == version) entry.fingerprint = fingerprint;
+    }
+
+    public static synchronized boolean addEntry(String path, Bundle file) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null) return false;
+        ArrayList<Bundle> fileList = new ArrayList<>(entry.fileList.size() + 1);
+        String fileName = file.getString("fileName");
+        for (Bundle bFile : entry.fileList) {
+            if (!fileName.equals(bFile.getString("fileName"))) fileList.add(bFile);
+        }
+        fileList.add(file);
+        saveFileList(path, fileList, entry.fingerprint);
+        return true;
+    }
+
+    public static synchronized boolean removeEntry(String path, String fileName) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null) return false;
+        ArrayList<Bundle> fileList = new ArrayList<>(entry.fileList.size());
+        for (Bundle bFile : entry.fileList) {
+            if (!fileName.equals(bFile.getString("fileName"))) fileList.add(bFile);
+        }
+        saveFileList(path, fileList, entry.fingerprint);
+        return true;
+    }
+
+    public static synchronized boolean renameEntry(String path, String fileName, String newName) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null) return false;
+        ArrayList<Bundle> fileList = new ArrayList<>(entry.fileList.size());
+        boolean found = false;
+        for (Bundle bFile : entry.fileList) {
+            String name = bFile.getString("fileName");
+            if (newName.equals(name)) continue; //replaced by the rename
+            if (fileName.equals(name)) {
+                bFile = new Bundle(bFile);
+                bFile.putString("fileName", newName);
+                bFile.putString("filePath", (path.equals("/") ? "" : path) + "/" + newName);
+                //the extension decides if a file can be listed as an archive
+                if (!bFile.getBoolean("isDirectory") && ArchiveIndex.isArchiveName(newName)) bFile.putBoolean("isArchive", true);
+                else bFile.remove("isArchive");
+                found = true;
+            }
+            fileList.add(bFile);
+        }
+        if (!found) {
+            sCachedData.remove(path);
+            return false;
+        }
+        saveFileList(path, fileList, entry.fingerprint);
+        return true;
+    }
+
+    //cached permutation of fileList for a sort order, null if not sorted yet or fileList is not the cached listing anymore
+    public static synchronized int[] getSortOrder(String path, ArrayList<Bundle> fileList, int order) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null || entry.fileList != fileList || entry.sortOrders == null) return null;
+        return entry.sortOrders.get(order);
+    }
+
+    //a patched or rescanned listing is a new entry, so its sort orders are computed again
+    public static synchronized void setSortOrder(String path, ArrayList<Bundle> fileList, int order, int[] permutation) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null || entry.fileList != fileList) return;
+        if (entry.sortOrders == null) entry.sortOrders = new HashMap<>();
+        entry.sortOrders.put(order, permutation);
+    }
+
+    //entry fileName of the cached listing of path, NOT_FOUND if it has none, null if path is not cached
+    public static synchronized Bundle findEntry(String path, String fileName) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null) return null;
+        if (entry.names == null) {
+            entry.names = new HashMap<>(entry.fileList.size() * 2);
+            for (Bundle bFile : entry.fileList) entry.names.put(bFile.getString("fileName"), bFile);
+        }
+        Bundle bFile = entry.names.get(fileName);
+        return bFile != null ? bFile : NOT_FOUND;
+    }
+
+    //the serverId of the entries, new entries of a patched listing get the same one
+    public static synchronized long getServerId(String path) {
+        Entry entry = sCachedData.get(path);
+        if (entry == null || entry.fileList.isEmpty()) return -1;
+        return entry.fileList.get(0).getLong("serverId");
+    }
+
+    private static class Entry {
+        ArrayList<Bundle> fileList;
+        final long version;
+        String fingerprint;
+        boolean isRequested;
+        HashMap<Integer, int[]> sortOrders;
+        HashMap<String, Bundle> names;
+
+        Entry(ArrayList<Bundle> fileList, long version, String fingerprint) {
+            this.fileList = fileList;
+            this.version = version;
+            this.fingerprint = fingerprint;
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import com.topjohnwu.superuser.io.SuFile;
+import com.topjohnwu.superuser.io.SuFileInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+//progress of a copy, kept with its request so retryRequest can continue where it failed
+public class CopyCheckpoint {
+    private static final int PREFIX_SIZE = 64 * 1024;
+    private static final int BLOCK_SIZE = 4096;
+
+    private final ConcurrentHashMap<String, Long> mCompleted = new ConcurrentHashMap<>();
+    private final Set<String> mFolders = ConcurrentHashMap.newKeySet();
+    private String mPartialPath;
+    private long mPartialOffset;
+    private final CRC32 mPrefixChecksum = new CRC32();
+    private long mPrefixLength;
+
+    //nothing was copied with this checkpoint yet
+    public synchronized boolean isEmpty() {
+        return mCompleted.isEmpty() && mFolders.isEmpty() && mPartialPath == null;
+    }
+
+    //bytes of the files an earlier attempt completed
+    public long getCompletedBytes() {
+        long total = 0;
+        for (long size : mCompleted.values()) total += size;
+        return total;
+    }
+
+    //size of dstPath if it was copied completely before, otherwise -1
+    public long getCompletedSize(String dstPath) {
+        Long size = mCompleted.get(dstPath);
+        return size != null ? size : -1;
+    }
+
+    //folders made by an earlier attempt may exist already, any other folder still makes the copy fail
+    public boolean isFolderCreated(String dstPath) {
+        return mFolders.contains(dstPath);
+    }
+
+    public void onFolderCreated(String dstPath) {
+        mFolders.add(dstPath);
+    }
+
+    public void onCompleted(String dstPath, long size) {
+        mCompleted.put(dstPath, size);
+        synchronized (this) {
+            if (dstPath.equals(mPartialPath)) mPartialPath = null;
+        }
+    }
+
+    public synchronized void onStarted(String dstPath, long offset) {
+        if (offset > 0 && dstPath.equals(mPartialPath)) return;
+        mPartialPath = dstPath;
+        mPartialOffset = 0;
+        mPrefixChecksum.reset();
+        mPrefixLength = 0;
+    }
+
+    //called after the bytes from position - len to position were handed to the destination
+    public synchronized void onWritten(byte[] buf, int off, int len, long position) {
+        long start = position - len;
+        if (start < PREFIX_SIZE && start == mPrefixLength) {
+            int prefix = (int) Math.min(len, PREFIX_SIZE - start);
+            mPrefixChecksum.update(buf, off, prefix);
+            mPrefixLength += prefix;
+        }
+        mPartialOffset = position;
+    }
+
+    public synchronized void onSkipped(long position) {
+        mPartialOffset = position;
+    }
+
+    //where a partial dstPath can be continued, after checking that its start is what was written
+    public synchronized long getResumeOffset(String dstPath) {
+        if (!dstPath.equals(mPartialPath) || mPartialOffset == 0) return 0;
+        long offset = Math.min(mPartialOffset, new SuFile(dstPath).length()) / BLOCK_SIZE * BLOCK_SIZE;
+        if (offset < mPrefixLength || mPrefixLength == 0) return 0;
+
+        CRC32 checksum = new CRC32();
+        try (InputStream in = SuFileInputStream.open(dstPath)) {
+            byte[] buf = new byte[BLOCK_SIZE];
+            long left = mPrefixLength;
+            int len;
+            while (left > 0 && (len = in.read(buf, 0, (int) Math.min(buf.length, left))) > 0) {
+                checksum.update(buf, 0, len);
+                left -= len;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            return 0;
+        }
+        return checksum.getValue() == mPrefixChecksum.getValue() ? offset : 0;
+    }
+}
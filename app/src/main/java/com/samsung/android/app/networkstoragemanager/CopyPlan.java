@@ -0,0 +1,105 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.RemoteException;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.topjohnwu.superuser.Shell;
+
+import java.util.HashMap;
+import java.util.List;
+
+//sizes a copy before it starts: is there room for it, what to preallocate and what 100% is
+public class CopyPlan {
+    private static final long MARGIN = 1024 * 1024; //room for folders and metadata of the new files
+
+    private final HashMap<String, long[]> mFiles = new HashMap<>(); //path to {size, allocated bytes}
+    public long totalSize;
+    public long allocatedSize;
+    public int fileCount;
+    public long availableSize = -1;
+
+    //one find over the whole source, whether it is a file or a tree
+    public static CopyPlan create(String sourcePath) {
+        CopyPlan plan = new CopyPlan();
+        String command = "find " + FileManager.quote(sourcePath) + " -type f -exec stat -c '%s %b %B %n' {} + 2>/dev/null";
+        for (String line : Shell.cmd(command).exec().getOut()) {
+            String[] fields = line.split(" ", 4);
+            if (fields.length < 4) continue;
+            try {
+                long size = Long.parseLong(fields[0]);
+                long allocated = Long.parseLong(fields[1]) * Long.parseLong(fields[2]);
+                plan.mFiles.put(fields[3], new long[]{size, allocated});
+                plan.totalSize += size;
+                plan.allocatedSize += allocated;
+                plan.fileCount++;
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        Metrics.add("plan.count", 1);
+        Metrics.add("plan.files", plan.fileCount);
+        return plan;
+    }
+
+    //an upload only knows the size of its file descriptor, which is -1 for a pipe
+    public static CopyPlan forSize(long size) {
+        CopyPlan plan = new CopyPlan();
+        if (size < 0) return plan;
+        plan.totalSize = size;
+        plan.allocatedSize = size;
+        plan.fileCount = 1;
+        return plan;
+    }
+
+    //free space of the mount dstFolderPath is on, as root sees it, -1 if unknown
+    public static long getAvailableSize(String dstFolderPath) {
+        List<String> out = Shell.cmd("stat -f -c '%a %S' " + FileManager.quote(dstFolderPath) + " 2>/dev/null").exec().getOut();
+        if (out.isEmpty()) return -1;
+        String[] fields = out.get(0).split(" ");
+        try {
+            return Long.parseLong(fields[0]) * Long.parseLong(fields[1]);
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            return -1;
+        }
+    }
+
+    //fails fast with errorReason, requiredSize and availableSize in result, alreadyCopied is what a retry finds in place
+    public boolean fits(String dstFolderPath, long alreadyCopied, Bundle result) {
+        availableSize = getAvailableSize(dstFolderPath);
+        if (availableSize < 0) return true; //unknown, let the copy find out
+        //holes stay holes on the destination, so the allocated size is what has to fit
+        long requiredSize = Math.max(0, allocatedSize - alreadyCopied) + MARGIN;
+        if (requiredSize <= availableSize) return true;
+        Metrics.add("plan.rejected", 1);
+        result.putString("errorReason", "notEnoughSpace");
+        result.putLong("requiredSize", requiredSize);
+        result.putLong("availableSize", availableSize);
+        return false;
+    }
+
+    //size to reserve for a copy of sourcePath, 0 if it is sparse or not part of the plan
+    public long getPreallocateSize(String sourcePath) {
+        long[] file = mFiles.get(sourcePath);
+        if (file == null || file[1] < file[0]) return 0;
+        return file[0];
+    }
+
+    //adds totalSize and percent to every progress report of the copy
+    public IProgressCallback wrap(IProgressCallback callback) {
+        if (callback == null || totalSize <= 0) return callback;
+        return new IProgressCallback() {
+            @Override
+            public void onProgress(long requestId, int reqCode, Bundle progress) throws RemoteException {
+                progress.putLong("totalSize", totalSize);
+                progress.putInt("percent", (int) Math.min(100, progress.getLong("handledSize") * 100 / totalSize));
+                callback.onProgress(requestId, reqCode, progress);
+            }
+
+            @Override
+            public IBinder asBinder() {
+                return callback.asBinder();
+            }
+        };
+    }
+}
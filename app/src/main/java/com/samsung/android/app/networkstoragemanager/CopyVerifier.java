@@ -0,0 +1,125 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+
+import com.topjohnwu.superuser.io.SuFileInputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+//checks a copy without a second pass over the source: the source is hashed while it is copied,
+//each finished copy is read back and hashed on another thread while the next file is copied
+public class CopyVerifier {
+    private static final String ALGORITHM = "SHA-256";
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_LISTED_FILES = 100; //per file lists beyond this would not fit through binder
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(2, runnable -> {
+        Thread thread = new Thread(runnable, "CopyVerifier");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ArrayList<Future<Boolean>> mChecks = new ArrayList<>();
+    private final TreeMap<String, String> mDigests = new TreeMap<>(); //destination path to hex digest of the source
+    private final ArrayList<String> mMismatches = new ArrayList<>();
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e); //every android has sha-256
+        }
+    }
+
+    //sourceDigest has seen every byte copied to dstPath, the read-back runs in the background
+    public void submit(String dstPath, MessageDigest sourceDigest) {
+        String expected = toHex(sourceDigest.digest());
+        synchronized (this) {
+            mDigests.put(dstPath, expected);
+            mChecks.add(sExecutor.submit(IoScheduler.inheritBulk(() -> {
+                long startTime = System.nanoTime();
+                String actual = hash(dstPath);
+                Metrics.add("verify.files", 1);
+                Metrics.add("verify.readBackMs", (System.nanoTime() - startTime) / 1000000);
+                if (expected.equals(actual)) return true;
+                Trace.event(Trace.ERROR, "copyVerifier", dstPath, expected + " != " + actual, 0);
+                Metrics.add("verify.mismatches", 1);
+                synchronized (CopyVerifier.this) {
+                    mMismatches.add(dstPath);
+                }
+                return false;
+            })));
+        }
+    }
+
+    //waits for the read-backs and puts digests, mismatchedFiles and verified into result
+    //a large tree gets one aggregateDigest over all "<digest>  <path>" lines in path order instead of digests
+    //files a retry found completed by an earlier attempt were not hashed and are not part of it
+    public boolean finish(Bundle result) {
+        boolean isVerified = true;
+        ArrayList<Future<Boolean>> checks;
+        synchronized (this) {
+            checks = new ArrayList<>(mChecks);
+        }
+        for (Future<Boolean> check : checks) {
+            try {
+                isVerified &= check.get();
+            } catch (InterruptedException | ExecutionException e) {
+                Trace.e("copyVerifier", "finish", e);
+                isVerified = false;
+            }
+        }
+        synchronized (this) {
+            if (mDigests.size() == 1) result.putString("digest", mDigests.firstEntry().getValue());
+            if (mDigests.size() <= MAX_LISTED_FILES) {
+                Bundle digests = new Bundle();
+                for (Map.Entry<String, String> entry : mDigests.entrySet()) digests.putString(entry.getKey(), entry.getValue());
+                result.putBundle("digests", digests);
+            } else {
+                MessageDigest aggregate = newDigest();
+                for (Map.Entry<String, String> entry : mDigests.entrySet()) {
+                    aggregate.update((entry.getValue() + "  " + entry.getKey() + "\n").getBytes(StandardCharsets.UTF_8));
+                }
+                result.putString("aggregateDigest", toHex(aggregate.digest()));
+            }
+            result.putStringArrayList("mismatchedFiles", new ArrayList<>(mMismatches.subList(0, Math.min(mMismatches.size(), MAX_LISTED_FILES))));
+            result.putInt("mismatchCount", mMismatches.size());
+        }
+        result.putString("digestAlgorithm", ALGORITHM);
+        result.putBoolean("verified", isVerified);
+        return isVerified;
+    }
+
+    //null if the copy can't be read
+    private static String hash(String path) {
+        File file = new File(path);
+        MessageDigest digest = newDigest();
+        try (InputStream in = file.canRead() ? new FileInputStream(file) : SuFileInputStream.open(path)) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            int len;
+            while ((len = in.read(buf)) > 0) digest.update(buf, 0, len);
+        } catch (IOException e) {
+            Trace.e("copyVerifier", path, e);
+            return null;
+        }
+        return toHex(digest.digest());
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) hex.append(Character.forDigit(b >> 4 & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        return hex.toString();
+    }
+}
@@ -0,0 +1,399 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+import android.os.RemoteException;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.topjohnwu.superuser.Shell;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//finds identical files below filePath(s): same size, then same first and last block, and only then the full sha-256
+//all hashing runs in root processes, so no file content goes through the shell pipe
+//one file seen through several paths is one file: symlinked folders are not followed, the views of the emulated storage
+//and of sd cards count as the folders below them, and paths of the same inode are never reported as copies of each other
+public class DuplicateFinder {
+    private static final String[] EXCLUDED_PATHS = {"/proc", "/sys", "/dev", "/acct", "/config", "/debug_ramdisk"};
+    //views of a folder to the folder itself, the sdcardfs or fuse views have devices of their own
+    private static final Pattern[] VIEWS = {
+            Pattern.compile("^/storage/emulated(/.*)?$"),
+            Pattern.compile("^/mnt/(?:user|pass_through|installer|androidwritable)/\\d+/emulated(/.*)?$"),
+            Pattern.compile("^/mnt/runtime/[^/]+/emulated(/.*)?$"),
+            Pattern.compile("^/storage/([0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}(?:/.*)?)$"),
+            Pattern.compile("^/mnt/(?:user|pass_through|installer|androidwritable)/\\d+/([0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}(?:/.*)?)$"),
+            Pattern.compile("^/mnt/runtime/[^/]+/([0-9A-Fa-f]{4}-[0-9A-Fa-f]{4}(?:/.*)?)$")};
+    private static final String[] VIEW_TARGETS = {"/data/media", "/data/media", "/data/media", "/mnt/media_rw/", "/mnt/media_rw/", "/mnt/media_rw/"};
+    private static final int MAX_DEPTH = 64;
+    private static final int MAX_STAT_PATHS = 256; //keeps a command well below the argument limit
+    private static final int BLOCK_SIZE = 4096;
+    private static final int SHELL_BATCH = 64; //files per shell command, keeps command lines short
+    private static final int PARALLELISM = 4;
+    private static final long PROGRESS_INTERVAL = 100;
+    private static final int MAX_LISTED_FILES = 500; //file Bundles per result or progress, more would not fit through binder
+    private static final ExecutorService sExecutor = Executors.newFixedThreadPool(PARALLELISM);
+
+    private final ArrayList<String> mPaths;
+    private final long mMinSize;
+    private final long mServerId;
+    private final IProgressCallback mProgressCallback;
+    private final long mRequestId;
+    private final int mReqCode;
+    private final AtomicBoolean mCanceled;
+
+    private final ArrayList<Bundle> mGroups = new ArrayList<>();
+    private final AtomicInteger mHandledCount = new AtomicInteger();
+    private volatile int mTotalCount;
+    private long mLastProgress;
+
+    public DuplicateFinder(Bundle extras, IProgressCallback progressCallback, long requestId, int reqCode, AtomicBoolean canceled) {
+        ArrayList<String> paths = extras.getStringArrayList("filePaths");
+        if (paths == null && extras.getString("filePath") != null) {
+            paths = new ArrayList<>();
+            paths.add(extras.getString("filePath"));
+        }
+        mPaths = paths;
+        mMinSize = Math.max(1, extras.getLong("minSize", 1)); //empty files are all equal and free
+        mServerId = extras.getLong("serverId");
+        mProgressCallback = progressCallback;
+        mRequestId = requestId;
+        mReqCode = reqCode;
+        mCanceled = canceled;
+    }
+
+    public boolean run(Bundle result) {
+        boolean isSuccess = find();
+        putGroups(result);
+        return isSuccess;
+    }
+
+    private boolean find() {
+        if (mPaths == null) return false;
+        long startTime = System.nanoTime();
+
+        //1. sizes come from the listings, nothing is read
+        HashMap<Long, ArrayList<Bundle>> bySize = new HashMap<>();
+        int fileCount = 0;
+        HashSet<String> seen = new HashSet<>(); //real paths, filePaths may overlap or be views of each other
+        List<String> roots = getCanonicalPaths(mPaths);
+        for (int i = 0; i < mPaths.size(); i++) {
+            if (seen.add(getRealPath(roots.get(i)))) fileCount += collect(mPaths.get(i), seen, bySize);
+        }
+        ArrayList<ArrayList<Bundle>> candidates = new ArrayList<>();
+        for (ArrayList<Bundle> files : bySize.values()) {
+            if (files.size() > 1) candidates.add(files);
+        }
+        candidates = dropSameInodes(candidates);
+        int sizeCandidates = count(candidates);
+        Metrics.add("duplicates.files", fileCount);
+        Metrics.add("duplicates.sizeCandidates", sizeCandidates);
+        if (mCanceled.get()) return false;
+
+        //2. first and last block, small files are complete with them
+        mTotalCount = sizeCandidates;
+        publishProgress("partialHash", null, true);
+        ArrayList<ArrayList<Bundle>> partialGroups = new ArrayList<>();
+        for (ArrayList<Bundle> files : candidates) {
+            if (mCanceled.get()) return false;
+            for (ArrayList<Bundle> group : split(files, partialHashes(files))) {
+                if (group.get(0).getLong("fileSize") <= 2 * BLOCK_SIZE) {
+                    publishGroup("partialHash", group, null);
+                } else {
+                    partialGroups.add(group);
+                }
+            }
+            mHandledCount.addAndGet(files.size());
+        }
+        Metrics.add("duplicates.hashCandidates", count(partialGroups));
+
+        //3. full hashes of what is left, one root process per group, several at once
+        mTotalCount = count(partialGroups);
+        mHandledCount.set(0);
+        publishProgress("fullHash", null, true);
+        ArrayList<Future<?>> futures = new ArrayList<>();
+        for (ArrayList<Bundle> files : partialGroups) {
+            futures.add(sExecutor.submit(IoScheduler.inheritBulk(() -> {
+                if (mCanceled.get()) return null;
+                HashMap<String, String> hashes = fullHashes(files);
+                for (ArrayList<Bundle> group : split(files, hashes)) publishGroup("fullHash", group, hashes.get(group.get(0).getString("filePath")));
+                mHandledCount.addAndGet(files.size());
+                return null;
+            })));
+        }
+        boolean isSuccess = true;
+        for (Future<?> future : futures) {
+            try {
+                future.get();
+            } catch (Exception e) {
+                e.printStackTrace();
+                isSuccess = false;
+            }
+        }
+        Metrics.add("duplicates.ms", (System.nanoTime() - startTime) / 1000000);
+        return isSuccess && !mCanceled.get();
+    }
+
+    //groups that waste the most come first, the totals count every group, isTruncated tells if some files are not listed
+    //a group always carries its fileCount, its fileList may be cut short
+    private void putGroups(Bundle result) {
+        ArrayList<Bundle> groups;
+        synchronized (mGroups) {
+            groups = new ArrayList<>(mGroups);
+        }
+        groups.sort((a, b) -> Long.compare(getWastedSize(b), getWastedSize(a)));
+        ArrayList<Bundle> listed = new ArrayList<>();
+        int listedFiles = 0;
+        int fileCount = 0;
+        long wastedSize = 0;
+        for (Bundle group : groups) {
+            fileCount += group.getInt("fileCount");
+            wastedSize += getWastedSize(group);
+            int room = MAX_LISTED_FILES - listedFiles;
+            if (room < 2) continue; //one file is no group
+            group = limit(group, room);
+            listed.add(group);
+            listedFiles += group.getParcelableArrayList("fileList").size();
+        }
+        result.putParcelableArrayList("groupList", listed);
+        result.putBoolean("isTruncated", listedFiles < fileCount);
+        result.putInt("groupCount", groups.size());
+        result.putInt("duplicateCount", fileCount - groups.size());
+        result.putLong("wastedSize", wastedSize);
+    }
+
+    private static long getWastedSize(Bundle group) {
+        return (group.getInt("fileCount") - 1) * group.getLong("fileSize");
+    }
+
+    //group with at most maxFiles of its files
+    private static Bundle limit(Bundle group, int maxFiles) {
+        ArrayList<Bundle> files = group.getParcelableArrayList("fileList");
+        if (files.size() <= maxFiles) return group;
+        Bundle limited = new Bundle(group);
+        limited.putParcelableArrayList("fileList", new ArrayList<>(files.subList(0, maxFiles)));
+        return limited;
+    }
+
+    //regular files of at least mMinSize below path, by size
+    //seen has the real paths of everything collected so far, a folder or file reached a second time is skipped
+    private int collect(String path, HashSet<String> seen, HashMap<Long, ArrayList<Bundle>> bySize) {
+        ArrayDeque<String> folders = new ArrayDeque<>();
+        ArrayDeque<Integer> depths = new ArrayDeque<>();
+        folders.add(path);
+        depths.add(0);
+        int count = 0;
+        while (!folders.isEmpty() && !mCanceled.get()) {
+            String folder = folders.poll();
+            int folderDepth = depths.poll();
+            //listings already cached are reused, the rest is read without filling the cache with the whole tree
+            ArrayList<Bundle> fileList = CachedFileList.contains(folder) ? FileManager.getFileListWithCache(folder, mServerId) : FileManager.getFileList(folder, mServerId);
+            HashSet<String> links = getLinkedFolders(fileList);
+            for (Bundle file : fileList) {
+                String filePath = file.getString("filePath");
+                if (filePath == null) continue;
+                if (file.getBoolean("isDirectory")) {
+                    //a symlinked folder shows the same files under another path, or loops
+                    if (folderDepth < MAX_DEPTH && !isExcluded(filePath) && !links.contains(filePath) && seen.add(getRealPath(filePath))) {
+                        folders.add(filePath);
+                        depths.add(folderDepth + 1);
+                    }
+                } else if (file.getLong("fileSize") >= mMinSize && seen.add(getRealPath(filePath))) {
+                    bySize.computeIfAbsent(file.getLong("fileSize"), size -> new ArrayList<>()).add(file);
+                    count++;
+                }
+            }
+            publishProgress("listing", null, false);
+        }
+        return count;
+    }
+
+    //folders of fileList that are symlinks, the listing follows them
+    private static HashSet<String> getLinkedFolders(List<Bundle> fileList) {
+        ArrayList<String> folders = new ArrayList<>();
+        for (Bundle file : fileList) {
+            if (file.getBoolean("isDirectory") && file.getString("filePath") != null) folders.add(file.getString("filePath"));
+        }
+        HashSet<String> links = new HashSet<>();
+        for (String[] fields : stat(folders, false, "%F")) {
+            if (fields[0].equals("symbolic link")) links.add(fields[1]);
+        }
+        return links;
+    }
+
+    //the folder a view of the emulated storage or of an sd card shows, other paths are returned as they are
+    static String getRealPath(String path) {
+        for (int i = 0; i < VIEWS.length; i++) {
+            Matcher matcher = VIEWS[i].matcher(path);
+            if (matcher.matches()) return VIEW_TARGETS[i] + (matcher.group(1) != null ? matcher.group(1) : "");
+        }
+        return path;
+    }
+
+    //paths with every link resolved, a path that can't be resolved stays as it is
+    private static List<String> getCanonicalPaths(List<String> paths) {
+        StringBuilder command = new StringBuilder("for p in");
+        for (String path : paths) command.append(' ').append(FileManager.quote(path));
+        List<String> out = Shell.cmd(command.append("; do readlink -f \"$p\" 2>/dev/null || echo \"$p\"; done").toString()).exec().getOut();
+        return out.size() == paths.size() ? out : paths;
+    }
+
+    //hard links, bind mounts and views are one file with one inode, only one path of it stays a candidate
+    //the device is left out on purpose: a fuse view has a device of its own but passes the inode through,
+    //so two different files are only missed if they share an inode number on two file systems
+    private ArrayList<ArrayList<Bundle>> dropSameInodes(List<ArrayList<Bundle>> candidates) {
+        ArrayList<String> paths = new ArrayList<>();
+        for (ArrayList<Bundle> files : candidates) {
+            for (Bundle file : files) paths.add(file.getString("filePath"));
+        }
+        HashMap<String, String> inodes = new HashMap<>();
+        for (String[] fields : stat(paths, true, "%i")) inodes.put(fields[1], fields[0]);
+
+        ArrayList<ArrayList<Bundle>> result = new ArrayList<>();
+        int dropped = 0;
+        for (ArrayList<Bundle> files : candidates) {
+            HashSet<String> seenInodes = new HashSet<>();
+            ArrayList<Bundle> unique = new ArrayList<>();
+            for (Bundle file : files) {
+                String inode = inodes.get(file.getString("filePath"));
+                //without an inode it can't be told apart from the others, it is no candidate
+                if (inode != null && seenInodes.add(inode)) unique.add(file);
+                else dropped++;
+            }
+            if (unique.size() > 1) result.add(unique);
+        }
+        Metrics.add("duplicates.sameInode", dropped);
+        return result;
+    }
+
+    //{value of format, path} for each path that could be stated, follow stats what links point to
+    private static ArrayList<String[]> stat(List<String> paths, boolean follow, String format) {
+        ArrayList<String[]> stats = new ArrayList<>();
+        for (int start = 0; start < paths.size(); start += MAX_STAT_PATHS) {
+            StringBuilder command = new StringBuilder(follow ? "stat -L" : "stat").append(" -c '").append(format).append("|%n'");
+            for (String path : paths.subList(start, Math.min(paths.size(), start + MAX_STAT_PATHS))) command.append(' ').append(FileManager.quote(path));
+            for (String line : Shell.cmd(command.append(" 2>/dev/null").toString()).exec().getOut()) {
+                int index = line.indexOf('|');
+                if (index > 0) stats.add(new String[]{line.substring(0, index), line.substring(index + 1)});
+            }
+        }
+        return stats;
+    }
+
+    private static boolean isExcluded(String path) {
+        for (String excluded : EXCLUDED_PATHS) {
+            if (path.equals(excluded) || path.startsWith(excluded + "/")) return true;
+        }
+        return false;
+    }
+
+    //md5 of the first and the last block of each file, read by head and tail in the shell
+    private static HashMap<String, String> partialHashes(List<Bundle> files) {
+        HashMap<String, String> hashes = new HashMap<>();
+        for (int start = 0; start < files.size(); start += SHELL_BATCH) {
+            List<Bundle> batch = files.subList(start, Math.min(files.size(), start + SHELL_BATCH));
+            StringBuilder command = new StringBuilder("for f in");
+            for (Bundle file : batch) command.append(' ').append(FileManager.quote(file.getString("filePath")));
+            command.append("; do if [ -r \"$f\" ]; then { head -c ").append(BLOCK_SIZE).append(" \"$f\"; tail -c ").append(BLOCK_SIZE)
+                    .append(" \"$f\"; } 2>/dev/null | md5sum; else echo -; fi; done");
+            List<String> out = Shell.cmd(command.toString()).exec().getOut();
+            if (out.size() != batch.size()) continue; //lines can't be matched to files, none of them is a candidate
+            for (int i = 0; i < batch.size(); i++) {
+                String line = out.get(i);
+                int space = line.indexOf(' ');
+                if (space > 0) hashes.put(batch.get(i).getString("filePath"), line.substring(0, space));
+            }
+        }
+        return hashes;
+    }
+
+    //sha-256 of whole files, in a root process of its own so groups are hashed in parallel
+    private static HashMap<String, String> fullHashes(List<Bundle> files) throws IOException, InterruptedException {
+        HashMap<String, String> hashes = new HashMap<>();
+        for (int start = 0; start < files.size(); start += SHELL_BATCH) {
+            StringBuilder command = new StringBuilder("sha256sum");
+            for (Bundle file : files.subList(start, Math.min(files.size(), start + SHELL_BATCH))) command.append(' ').append(FileManager.quote(file.getString("filePath")));
+            RootProcess process = RootProcess.start(command.toString(), false, true);
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    //"<hash>  <path>"
+                    int space = line.indexOf("  ");
+                    if (space > 0) hashes.put(line.substring(space + 2), line.substring(0, space));
+                }
+            } finally {
+                process.waitFor();
+            }
+        }
+        return hashes;
+    }
+
+    //files with the same hash, groups of one and files without a hash are left out
+    private static ArrayList<ArrayList<Bundle>> split(List<Bundle> files, HashMap<String, String> hashes) {
+        TreeMap<String, ArrayList<Bundle>> byHash = new TreeMap<>();
+        for (Bundle file : files) {
+            String hash = hashes.get(file.getString("filePath"));
+            if (hash != null) byHash.computeIfAbsent(hash, key -> new ArrayList<>()).add(file);
+        }
+        ArrayList<ArrayList<Bundle>> groups = new ArrayList<>();
+        for (Map.Entry<String, ArrayList<Bundle>> entry : byHash.entrySet()) {
+            if (entry.getValue().size() > 1) groups.add(entry.getValue());
+        }
+        return groups;
+    }
+
+    private static int count(List<ArrayList<Bundle>> groups) {
+        int count = 0;
+        for (ArrayList<Bundle> group : groups) count += group.size();
+        return count;
+    }
+
+    //digest is null for small files, which were compared completely by their blocks
+    private void publishGroup(String stage, ArrayList<Bundle> files, String digest) {
+        Bundle group = new Bundle();
+        group.putLong("fileSize", files.get(0).getLong("fileSize"));
+        if (digest != null) group.putString("digest", digest);
+        group.putInt("fileCount", files.size());
+        group.putParcelableArrayList("fileList", files);
+        synchronized (mGroups) {
+            mGroups.add(group);
+        }
+        Metrics.add("duplicates.groups", 1);
+        publishProgress(stage, limit(group, MAX_LISTED_FILES), true);
+    }
+
+    //every found group is sent as soon as it is known, the final result repeats as many of them as fit
+    private void publishProgress(String stage, Bundle group, boolean force) {
+        if (mProgressCallback == null) return;
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            if (!force && now - mLastProgress < PROGRESS_INTERVAL) return;
+            mLastProgress = now;
+        }
+        Bundle progress = new Bundle();
+        progress.putString("stage", stage);
+        progress.putInt("handledCount", mHandledCount.get());
+        progress.putInt("totalCount", mTotalCount);
+        if (group != null) progress.putBundle("group", group);
+        try {
+            mProgressCallback.onProgress(mRequestId, mReqCode, progress);
+        } catch (RemoteException e) {
+            e.printStackTrace();
+        }
+    }
+}
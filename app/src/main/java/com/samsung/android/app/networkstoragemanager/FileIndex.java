@@ -0,0 +1,515 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class FileIndex {
+    private static final String[] EXCLUDED_PATHS = {"/proc", "/sys", "/dev", "/acct", "/config", "/mnt", "/storage", "/debug_ramdisk"};
+    private static final long REFRESH_INTERVAL = 60 * 1000;
+
+    private static final ExecutorService sExecutor = Executors.newSingleThreadExecutor();
+    private static volatile Index sIndex;
+    private static File sIndexFile;
+    private static File sStampFile;
+    private static String[] sRoots = new String[0]; //only used on sExecutor
+    private static long sLastRefresh;
+    private static volatile boolean sUnloaded;
+
+    static {
+        MemoryPressure.register(FileIndex::trim);
+    }
+
+    public static void init(Context context, ArrayList<Bundle> locations) {
+        sIndexFile = new File(context.getFilesDir(), "file_index");
+        sStampFile = new File(context.getFilesDir(), "file_index.stamp");
+        //roots are resolved by a root shell, which may wait for su, so not on the calling thread
+        ArrayList<Bundle> copy = new ArrayList<>(locations);
+        sExecutor.execute(() -> {
+            sRoots = getRoots(copy);
+            reload();
+        });
+    }
+
+    public static void updateLocations(ArrayList<Bundle> locations) {
+        ArrayList<Bundle> copy = new ArrayList<>(locations);
+        sExecutor.execute(() -> {
+            String[] roots = getRoots(copy);
+            if (Arrays.equals(roots, sRoots)) return;
+            sRoots = roots;
+            build();
+        });
+    }
+
+    public static ArrayList<Bundle> search(String query, String scope, int maxCount, long serverId) {
+        Index index = sIndex;
+        ArrayList<Bundle> fileList = new ArrayList<>();
+        if (sUnloaded) {
+            sUnloaded = false;
+            sExecutor.execute(FileIndex::reload);
+        }
+        if (index == null || query == null || query.isEmpty()) return fileList;
+
+        if (System.currentTimeMillis() - sLastRefresh > REFRESH_INTERVAL) {
+            sLastRefresh = System.currentTimeMillis();
+            sExecutor.execute(FileIndex::refresh);
+        }
+
+        for (int id : index.search(query.toLowerCase(Locale.ROOT), scope, maxCount)) {
+            String path = index.getPath(id);
+            Bundle bFile = new Bundle();
+            bFile.putLong("serverId", serverId);
+            bFile.putString("filePath", path);
+            bFile.putString("fileName", index.mNames[id]);
+            bFile.putBoolean("isDirectory", index.mIsDir[id]);
+            fileList.add(bFile);
+        }
+        return fileList;
+    }
+
+    //the index is saved, so it can be dropped from memory and loaded again on the next search
+    private static void trim(int tier) {
+        Index index = sIndex;
+        if (index == null) return;
+        if (tier >= MemoryPressure.TRIM_TO_FLOOR) {
+            sExecutor.execute(() -> {
+                if (sIndex == null || !sIndex.save(sIndexFile)) return;
+                sIndex = null;
+                sUnloaded = true;
+            });
+        } else if (tier >= MemoryPressure.TRIM_COMPACT) {
+            index.compact();
+        }
+    }
+
+    private static void reload() {
+        Index index = Index.load(sIndexFile);
+        if (index != null && sStampFile.exists() && Arrays.equals(index.mRoots, sRoots)) {
+            sIndex = index;
+            refresh();
+        } else {
+            build();
+        }
+    }
+
+    public static boolean isReady() {
+        return sIndex != null;
+    }
+
+    public static void onCreated(String path, boolean isDirectory) {
+        Index index = sIndex;
+        if (index != null && index.isIndexed(path)) index.insert(path, isDirectory);
+    }
+
+    public static void onDeleted(String path) {
+        Index index = sIndex;
+        if (index != null) index.remove(path);
+    }
+
+    public static void onRenamed(String path, String newName) {
+        Index index = sIndex;
+        if (index != null) index.rename(path, newName);
+    }
+
+    private static String[] getRoots(ArrayList<Bundle> locations) {
+        ArrayList<String> roots = new ArrayList<>();
+        for (Bundle location : locations) {
+            String sharedFolder = location.getString("sharedFolder", "");
+            roots.add(sharedFolder.isEmpty() ? "/" : "/" + sharedFolder);
+        }
+        //nested locations are covered by their parent, unless the parent skips them
+        //decided on where roots really are: /sdcard lies below the skipped /storage, and find -H follows it as a root only
+        List<String> canonical = getCanonicalPaths(roots);
+        ArrayList<String> result = new ArrayList<>();
+        ArrayList<String> resultCanonical = new ArrayList<>();
+        for (int i = 0; i < roots.size(); i++) {
+            String root = canonical.get(i);
+            boolean covered = resultCanonical.contains(root);
+            for (String other : canonical) {
+                if (!other.equals(root) && isBelow(root, other) && !isExcluded(root)) covered = true;
+            }
+            if (!covered) {
+                result.add(roots.get(i));
+                resultCanonical.add(root);
+            }
+        }
+        String[] array = result.toArray(new String[0]);
+        Arrays.sort(array);
+        return array;
+    }
+
+    //paths with every link resolved, a path that can't be resolved stays as it is
+    private static List<String> getCanonicalPaths(List<String> paths) {
+        StringBuilder command = new StringBuilder("for p in");
+        for (String path : paths) command.append(" ").append(FileManager.quote(path));
+        List<String> out = Shell.cmd(command.append("; do readlink -f \"$p\" 2>/dev/null || echo \"$p\"; done").toString()).exec().getOut();
+        return out.size() == paths.size() ? out : paths;
+    }
+
+    private static boolean isBelow(String path, String parent) {
+        return parent.equals("/") || path.startsWith(parent + "/");
+    }
+
+    private static boolean isExcluded(String path) {
+        for (String excluded : EXCLUDED_PATHS) {
+            if (path.equals(excluded) || path.startsWith(excluded + "/")) return true;
+        }
+        return false;
+    }
+
+    private static String findCommand(String[] paths, String depth, String filter) {
+        StringBuilder command = new StringBuilder("find -H");
+        for (String path : paths) command.append(" ").append(FileManager.quote(path));
+        command.append(depth).append(" \\(");
+        for (int i = 0; i < EXCLUDED_PATHS.length; i++) {
+            command.append(i > 0 ? " -o" : "").append(" -path ").append(EXCLUDED_PATHS[i]);
+        }
+        //folders get a trailing slash, -exec + may print them after their content
+        return command.append(" \\) -prune -o \\(").append(filter)
+                .append(" \\( -type d -exec printf '%s/\\n' {} + -o -print \\) \\) 2>/dev/null").toString();
+    }
+
+    private static void build() {
+        long start = System.currentTimeMillis();
+        String[] roots = sRoots;
+        Index index = new Index(roots);
+        File stamp = new File(sStampFile.getPath() + ".tmp");
+        try {
+            new FileOutputStream(stamp).close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        Shell.cmd(findCommand(roots, "", "")).to(new LineSink(index), null).exec();
+        sIndex = index;
+        sLastRefresh = System.currentTimeMillis();
+        if (index.save(sIndexFile)) stamp.renameTo(sStampFile);
+        Trace.event(Trace.INFO, "fileIndex", "built", index.mSize + " entries", System.currentTimeMillis() - start);
+    }
+
+    //only folders modified after the last save are listed again
+    private static void refresh() {
+        Index index = sIndex;
+        if (index == null || !sStampFile.exists()) return;
+        File stamp = new File(sStampFile.getPath() + ".tmp");
+        try {
+            new FileOutputStream(stamp).close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+
+        List<String> changed = Shell.cmd(findCommand(index.mRoots, "", " -type d -newer " + FileManager.quote(sStampFile.getPath()))).exec().getOut();
+        HashSet<String> changedDirs = new HashSet<>();
+        for (String line : changed) if (line.endsWith("/")) changedDirs.add(trimSlash(line));
+
+        if (!changedDirs.isEmpty()) {
+            HashMap<String, HashMap<String, Boolean>> children = new HashMap<>();
+            for (String dir : changedDirs) children.put(dir, new HashMap<>());
+            List<String> lines = Shell.cmd(findCommand(changedDirs.toArray(new String[0]), " -mindepth 1 -maxdepth 1", "")).exec().getOut();
+            for (String line : lines) {
+                boolean isDirectory = line.endsWith("/");
+                String path = trimSlash(line);
+                HashMap<String, Boolean> entries = children.get(path.substring(0, Math.max(1, path.lastIndexOf('/'))));
+                if (entries != null) entries.put(path.substring(path.lastIndexOf('/') + 1), isDirectory);
+            }
+
+            //moved in folders keep their old mtime, so their content has to be scanned as well
+            ArrayList<String> newDirs = new ArrayList<>();
+            for (String dir : changedDirs) index.update(dir, children.get(dir), newDirs);
+            if (!newDirs.isEmpty()) {
+                Shell.cmd(findCommand(newDirs.toArray(new String[0]), "", "")).to(new LineSink(index), null).exec();
+            }
+        }
+
+        sLastRefresh = System.currentTimeMillis();
+        if (index.save(sIndexFile)) stamp.renameTo(sStampFile);
+    }
+
+    private static String trimSlash(String path) {
+        return path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+    }
+
+    private static class LineSink extends AbstractList<String> {
+        final Index mIndex;
+
+        LineSink(Index index) {
+            mIndex = index;
+        }
+
+        @Override
+        public boolean add(String line) {
+            if (!line.isEmpty()) mIndex.insert(trimSlash(line), line.endsWith("/"));
+            return true;
+        }
+
+        @Override
+        public String get(int i) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        @Override
+        public int size() {
+            return 0;
+        }
+    }
+
+    private static class IntList {
+        int[] mValues = new int[4];
+        int mSize;
+
+        void add(int value) {
+            if (mSize > 0 && mValues[mSize - 1] == value) return;
+            if (mSize == mValues.length) mValues = Arrays.copyOf(mValues, mSize * 2);
+            mValues[mSize++] = value;
+        }
+    }
+
+    //tree of names with a trigram index over the lowercase names, removed entries are kept as null names
+    private static class Index {
+        final String[] mRoots;
+        String[] mNames = new String[1024];
+        int[] mParents = new int[1024];
+        int[] mFirstChild = new int[1024];
+        int[] mNextSibling = new int[1024];
+        boolean[] mIsDir = new boolean[1024];
+        int mSize;
+        final HashMap<Long, IntList> mTrigrams = new HashMap<>();
+
+        Index(String[] roots) {
+            mRoots = roots;
+            add(-1, "", true); //0 is "/"
+        }
+
+        private void resize(int capacity) {
+            mNames = Arrays.copyOf(mNames, capacity);
+            mParents = Arrays.copyOf(mParents, capacity);
+            mFirstChild = Arrays.copyOf(mFirstChild, capacity);
+            mNextSibling = Arrays.copyOf(mNextSibling, capacity);
+            mIsDir = Arrays.copyOf(mIsDir, capacity);
+        }
+
+        synchronized void compact() {
+            resize(mSize + 1);
+            for (IntList ids : mTrigrams.values()) ids.mValues = Arrays.copyOf(ids.mValues, ids.mSize + 1);
+        }
+
+        private int add(int parent, String name, boolean isDirectory) {
+            if (mSize == mNames.length) resize(mSize * 2);
+            int id = mSize++;
+            mNames[id] = name;
+            mParents[id] = parent;
+            mFirstChild[id] = -1;
+            mIsDir[id] = isDirectory;
+            if (parent >= 0) {
+                mNextSibling[id] = mFirstChild[parent];
+                mFirstChild[parent] = id;
+            } else {
+                mNextSibling[id] = -1;
+            }
+            addTrigrams(id, name);
+            return id;
+        }
+
+        private void addTrigrams(int id, String name) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            for (int i = 0; i + 3 <= lower.length(); i++) {
+                IntList ids = mTrigrams.get(trigram(lower, i));
+                if (ids == null) mTrigrams.put(trigram(lower, i), ids = new IntList());
+                ids.add(id);
+            }
+        }
+
+        private static long trigram(String s, int i) {
+            return ((long) s.charAt(i) << 32) | ((long) s.charAt(i + 1) << 16) | s.charAt(i + 2);
+        }
+
+        private int findChild(int parent, String name) {
+            for (int id = mFirstChild[parent]; id >= 0; id = mNextSibling[id]) {
+                if (name.equals(mNames[id])) return id;
+            }
+            return -1;
+        }
+
+        private int resolve(String path, boolean create) {
+            int id = 0;
+            for (String name : path.split("/")) {
+                if (name.isEmpty()) continue;
+                int child = findChild(id, name);
+                if (child < 0) {
+                    if (!create) return -1;
+                    child = add(id, name, true);
+                }
+                id = child;
+            }
+            return id;
+        }
+
+        boolean isIndexed(String path) {
+            for (String root : mRoots) {
+                if ((path.equals(root) || isBelow(path, root)) && (!isExcluded(path) || isExcluded(root))) return true;
+            }
+            return false;
+        }
+
+        synchronized void insert(String path, boolean isDirectory) {
+            int index = path.lastIndexOf('/');
+            if (index < 0) return;
+            int parent = resolve(path.substring(0, index), true);
+            String name = path.substring(index + 1);
+            if (name.isEmpty()) return;
+            int id = findChild(parent, name);
+            if (id < 0) {
+                add(parent, name, isDirectory);
+            } else {
+                mIsDir[id] |= isDirectory;
+            }
+        }
+
+        synchronized void remove(String path) {
+            int id = resolve(path, false);
+            if (id > 0) removeTree(id);
+        }
+
+        private void removeTree(int id) {
+            for (int child = mFirstChild[id]; child >= 0; child = mNextSibling[child]) {
+                if (mNames[child] != null) removeTree(child);
+            }
+            mNames[id] = null;
+            int parent = mParents[id];
+            if (mFirstChild[parent] == id) {
+                mFirstChild[parent] = mNextSibling[id];
+            } else {
+                for (int sibling = mFirstChild[parent]; sibling >= 0; sibling = mNextSibling[sibling]) {
+                    if (mNextSibling[sibling] == id) {
+                        mNextSibling[sibling] = mNextSibling[id];
+                        break;
+                    }
+                }
+            }
+        }
+
+        synchronized void rename(String path, String newName) {
+            int id = resolve(path, false);
+            if (id <= 0) return;
+            mNames[id] = newName;
+            addTrigrams(id, newName); //old trigrams are filtered out by search
+        }
+
+        synchronized void update(String dir, HashMap<String, Boolean> entries, ArrayList<String> newDirs) {
+            int parent = resolve(dir, true);
+            HashSet<String> known = new HashSet<>();
+            for (int id = mFirstChild[parent], next; id >= 0; id = next) {
+                next = mNextSibling[id];
+                if (mNames[id] == null) continue;
+                if (entries == null || !entries.containsKey(mNames[id])) {
+                    removeTree(id);
+                } else {
+                    known.add(mNames[id]);
+                }
+            }
+            if (entries == null) return;
+            for (String name : entries.keySet()) {
+                if (known.contains(name)) continue;
+                boolean isDirectory = entries.get(name);
+                add(parent, name, isDirectory);
+                if (isDirectory) newDirs.add((dir.equals("/") ? "" : dir) + "/" + name);
+            }
+        }
+
+        synchronized ArrayList<Integer> search(String query, String scope, int maxCount) {
+            ArrayList<Integer> result = new ArrayList<>();
+            int[] candidates = null;
+            int count = mSize;
+            if (query.length() >= 3) {
+                //the rarest trigram of the query gives the smallest candidate list
+                for (int i = 0; i + 3 <= query.length(); i++) {
+                    IntList ids = mTrigrams.get(trigram(query, i));
+                    if (ids == null) return result;
+                    if (candidates == null || ids.mSize < count) {
+                        candidates = ids.mValues;
+                        count = ids.mSize;
+                    }
+                }
+            }
+            String scopePrefix = scope == null || scope.equals("/") ? null : scope + "/";
+            for (int i = 0; i < count && result.size() < maxCount; i++) {
+                int id = candidates != null ? candidates[i] : i;
+                String name = mNames[id];
+                if (id == 0 || name == null || !name.toLowerCase(Locale.ROOT).contains(query)) continue;
+                if (scopePrefix != null && !getPath(id).startsWith(scopePrefix)) continue;
+                if (!result.contains(id)) result.add(id);
+            }
+            return result;
+        }
+
+        synchronized String getPath(int id) {
+            StringBuilder path = new StringBuilder();
+            for (; id > 0; id = mParents[id]) path.insert(0, mNames[id]).insert(0, '/');
+            return path.length() > 0 ? path.toString() : "/";
+        }
+
+        synchronized boolean save(File file) {
+            File tmp = new File(file.getPath() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+                out.writeInt(mRoots.length);
+                for (String root : mRoots) out.writeUTF(root);
+                //parents always have a lower id than their children, so the ids can be compacted in one pass
+                int[] newIds = new int[mSize];
+                int count = 0;
+                for (int id = 0; id < mSize; id++) {
+                    boolean alive = mNames[id] != null && (id == 0 || newIds[mParents[id]] >= 0);
+                    newIds[id] = alive ? count++ : -1;
+                }
+                out.writeInt(count);
+                for (int id = 1; id < mSize; id++) {
+                    if (newIds[id] < 0) continue;
+                    out.writeInt(newIds[mParents[id]]);
+                    out.writeBoolean(mIsDir[id]);
+                    out.writeUTF(mNames[id]);
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            return tmp.renameTo(file);
+        }
+
+        static Index load(File file) {
+            if (!file.exists()) return null;
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                String[] roots = new String[in.readInt()];
+                for (int i = 0; i < roots.length; i++) roots[i] = in.readUTF();
+                Index index = new Index(roots);
+                int count = in.readInt();
+                for (int id = 1; id < count; id++) {
+                    int parent = in.readInt();
+                    boolean isDirectory = in.readBoolean();
+                    index.add(parent, in.readUTF(), isDirectory);
+                }
+                return index;
+            } catch (IOException e) {
+                e.printStackTrace();
+                return null;
+            }
+        }
+    }
+}
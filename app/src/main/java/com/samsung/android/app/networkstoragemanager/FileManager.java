@@ -2,75 +2,140 @@ package com.samsung.android.app.networkstoragemanager;
 
 import android.os.Bundle;
 import android.os.ParcelFileDescriptor;
-import android.util.Log;
 
 import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.topjohnwu.superuser.Shell;
 import com.topjohnwu.superuser.io.SuFile;
 import com.topjohnwu.superuser.io.SuFileInputStream;
-import com.topjohnwu.superuser.io.SuFileOutputStream;
 
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.security.MessageDigest;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class FileManager {
+    private static final long REVALIDATE_DELAY = 50;
+    private static final ScheduledExecutorService sRevalidateExecutor = Executors.newSingleThreadScheduledExecutor();
+    private static final HashMap<String, Long> sPendingRevalidations = new HashMap<>();
 
     public static boolean exists(String filePath) {
-        return (new SuFile(filePath)).exists();
+        Bundle bFile = findCachedEntry(filePath);
+        if (bFile != null) return bFile != CachedFileList.NOT_FOUND;
+        return StatBatch.stat(filePath) != null;
     }
 
     public static boolean renameFile(String filePath, String newName) {
-        clearPathCache(filePath, true);
+        String parentPath = getParentPath(filePath);
+        FolderSizes.invalidateTree(filePath);
+        PreviewCache.remove(filePath);
         SuFile file = new SuFile(filePath);
-        return file.renameTo(new SuFile(file.getParent() + "/" + newName));
+        boolean isSuccess = file.renameTo(new SuFile(file.getParent() + "/" + newName));
+        if (isSuccess) {
+            CachedFileList.removeTree(filePath);
+            updatePathCache(parentPath, CachedFileList.renameEntry(parentPath, file.getName(), newName));
+            FileIndex.onRenamed(filePath, newName);
+        }
+        return isSuccess;
     }
 
     public static boolean newFolder(String path, String name) {
-        clearPathCache(path, false);
-        SuFile dir = new SuFile(path + "/" + name);
-        return dir.mkdirs();
+        boolean isSuccess = makeFolder(path + "/" + name);
+        if (isSuccess) addToPathCache(path, path + "/" + name);
+        return isSuccess;
+    }
+
+    static boolean makeFolder(String path) {
+        SuFile dir = new SuFile(path);
+        boolean isSuccess = dir.mkdirs();
+        if (isSuccess) FileIndex.onCreated(dir.getPath(), true);
+        return isSuccess;
     }
 
     public static boolean deleteFile(String filePath) {
-        clearPathCache(filePath, true);
+        String parentPath = getParentPath(filePath);
+        boolean isSuccess = delete(filePath);
+        CachedFileList.removeTree(filePath);
+        //a failed delete may have removed a part of it, so only a complete one is patched
+        updatePathCache(parentPath, isSuccess && CachedFileList.removeEntry(parentPath, filePath.substring(filePath.lastIndexOf("/") + 1)));
+        return isSuccess;
+    }
+
+    static boolean delete(String filePath) {
+        FolderSizes.invalidateTree(filePath);
+        PreviewCache.remove(filePath);
         SuFile file = new SuFile(filePath);
-        return file.deleteRecursive();
+        boolean isSuccess = file.deleteRecursive();
+        if (isSuccess) FileIndex.onDeleted(filePath);
+        return isSuccess;
     }
 
-    public static twoReturn copy(String sourcePath, String dstFolderPath, String dstFileName, IProgressCallback mProgressCallback, long requestId, int reqCode, long progress) {
-        clearPathCache(dstFolderPath, false);
+    //plan may be null, otherwise it adds percent progress and the sizes to preallocate
+    //verifier may be null, otherwise every copied file is hashed and read back, so trees are copied file by file
+    //once canceled is set nothing more is copied and the copy fails
+    public static twoReturn copy(String sourcePath, String dstFolderPath, String dstFileName, IProgressCallback mProgressCallback, long requestId, int reqCode, long progress, CopyCheckpoint checkpoint, CopyPlan plan, CopyVerifier verifier, AtomicBoolean canceled) {
+        if (plan != null) mProgressCallback = plan.wrap(mProgressCallback);
+        twoReturn t;
+        if ((checkpoint == null || checkpoint.isEmpty()) && verifier == null && TarTransfer.isAvailable() && new SuFile(sourcePath).isDirectory()) {
+            t = copyTree(sourcePath, dstFolderPath + "/" + dstFileName, mProgressCallback, requestId, reqCode, progress, checkpoint, canceled);
+        } else {
+            t = copyFiles(sourcePath, dstFolderPath, dstFileName, mProgressCallback, requestId, reqCode, progress, checkpoint, plan, verifier, canceled);
+        }
+        if (t.isSuccess) {
+            addToPathCache(dstFolderPath, dstFolderPath + "/" + dstFileName);
+        } else {
+            clearPathCache(dstFolderPath, false);
+        }
+        return t;
+    }
+
+    //same as copy, but leaves invalidating the listing of dstFolderPath to the caller
+    //checkpoint may be null, otherwise files it has seen completed are skipped and a partial one is continued
+    static twoReturn copyFiles(String sourcePath, String dstFolderPath, String dstFileName, IProgressCallback mProgressCallback, long requestId, int reqCode, long progress, CopyCheckpoint checkpoint, CopyPlan plan, CopyVerifier verifier, AtomicBoolean canceled) {
+        if (canceled.get()) return new twoReturn(false, progress);
         SuFile file = new SuFile(sourcePath);
-        Log.e("copy", sourcePath + " to " + dstFolderPath + "/" + dstFileName);
+        String dstPath = dstFolderPath + "/" + dstFileName;
+        Trace.d("copy", sourcePath, dstFolderPath);
         if (file.isDirectory()) {
-            boolean isSuccess = newFolder(dstFolderPath, dstFileName);
+            boolean isSuccess = makeFolder(dstPath) || (checkpoint != null && checkpoint.isFolderCreated(dstPath) && new SuFile(dstPath).isDirectory());
             if (isSuccess) {
+                if (checkpoint != null) checkpoint.onFolderCreated(dstPath);
                 for (String fileName : file.list()) {
-                    twoReturn t = copy(sourcePath + "/" + fileName, dstFolderPath + "/" + dstFileName, fileName, mProgressCallback, requestId, reqCode, progress);
+                    twoReturn t = copyFiles(sourcePath + "/" + fileName, dstPath, fileName, mProgressCallback, requestId, reqCode, progress, checkpoint, plan, verifier, canceled);
                     isSuccess &= t.isSuccess;
-                    progress += t.progress;
+                    progress = t.progress;
                 }
             }
             return new twoReturn(isSuccess, progress);
         } else {
+            long completedSize = checkpoint != null ? checkpoint.getCompletedSize(dstPath) : -1;
+            if (completedSize >= 0) return new twoReturn(true, progress + completedSize);
+            PreviewCache.remove(dstPath);
             try {
-                InputStream in = SuFileInputStream.open(sourcePath);
-                OutputStream out = SuFileOutputStream.open(dstFolderPath + "/" + dstFileName);
-
-                byte[] buf = new byte[4096];
-                int len;
-                long total = progress;
+                long base = progress;
                 Bundle bundle = new Bundle();
-                while ((len = in.read(buf)) > 0) {
-                    bundle.putLong("handledSize", total += len);
+                long preallocate = plan != null ? plan.getPreallocateSize(sourcePath) : 0;
+                MessageDigest digest = verifier != null ? CopyVerifier.newDigest() : null;
+                SparseCopy.Stats stats = SparseCopy.copy(sourcePath, dstPath, checkpoint, preallocate, digest, handledSize -> {
+                    bundle.putLong("handledSize", base + handledSize);
                     mProgressCallback.onProgress(requestId, reqCode, bundle);
-                    out.write(buf, 0, len);
-                }
-
-                in.close();
-                out.close();
-                return new twoReturn(true, total);
+                });
+                if (verifier != null) verifier.submit(dstPath, digest);
+                if (checkpoint != null) checkpoint.onCompleted(dstPath, stats.size);
+                FileIndex.onCreated(dstPath, false);
+                return new twoReturn(true, base + stats.size);
             } catch (Exception e) {
                 e.printStackTrace();
                 return new twoReturn(false, progress);
@@ -78,6 +143,25 @@ public class FileManager {
         }
     }
 
+    //a tree goes through one tar stream, only files that failed there are copied one by one
+    private static twoReturn copyTree(String sourcePath, String dstPath, IProgressCallback mProgressCallback, long requestId, int reqCode, long progress, CopyCheckpoint checkpoint, AtomicBoolean canceled) {
+        if (!makeFolder(dstPath)) return new twoReturn(false, progress);
+        if (checkpoint != null) checkpoint.onFolderCreated(dstPath); //a retry continues file by file
+        try {
+            Bundle bundle = new Bundle();
+            long size = TarTransfer.copy(sourcePath, dstPath, checkpoint, (handledSize, handledCount, fileName) -> {
+                bundle.putLong("handledSize", progress + handledSize);
+                bundle.putInt("handledCount", handledCount);
+                bundle.putString("fileName", fileName);
+                mProgressCallback.onProgress(requestId, reqCode, bundle);
+            }, canceled);
+            return new twoReturn(size >= 0, progress + Math.max(size, 0));
+        } catch (Exception e) {
+            e.printStackTrace();
+            return new twoReturn(false, progress);
+        }
+    }
+
     static class twoReturn { //python is definitely better for this :(
         public boolean isSuccess;
         public long progress;
@@ -88,76 +172,261 @@ public class FileManager {
         }
     }
 
-    public static boolean copy(ParcelFileDescriptor fileDescriptor, String dstFolderPath, String dstFileName, IProgressCallback mProgressCallback, long requestId, int reqCode) {
-        clearPathCache(dstFolderPath, false);
+    public static boolean copy(ParcelFileDescriptor fileDescriptor, String dstFolderPath, String dstFileName, IProgressCallback mProgressCallback, long requestId, int reqCode, CopyPlan plan) {
+        if (plan != null) mProgressCallback = plan.wrap(mProgressCallback);
+        IProgressCallback progressCallback = mProgressCallback;
         try {
             InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor);
-            OutputStream out = SuFileOutputStream.open(dstFolderPath + "/" + dstFileName);
-
-            byte[] buf = new byte[4096];
-            int len;
-            long total = 0;
             Bundle progress = new Bundle();
-            while ((len = in.read(buf)) > 0) {
-                progress.putLong("handledSize", total += len);
-                mProgressCallback.onProgress(requestId, reqCode, progress);
-                out.write(buf, 0, len);
-            }
-
-            in.close();
-            out.close();
+            long preallocate = plan != null ? plan.totalSize : 0;
+            PreviewCache.remove(dstFolderPath + "/" + dstFileName);
+            SparseCopy.copy(in, dstFolderPath + "/" + dstFileName, 0, null, preallocate, handledSize -> {
+                progress.putLong("handledSize", handledSize);
+                progressCallback.onProgress(requestId, reqCode, progress);
+            });
+            FileIndex.onCreated(dstFolderPath + "/" + dstFileName, false);
+            addToPathCache(dstFolderPath, dstFolderPath + "/" + dstFileName);
             return true;
         } catch (Exception e) {
             e.printStackTrace();
+            clearPathCache(dstFolderPath, false);
             return false;
         }
     }
 
     public static ArrayList<Bundle> getFileList(String filePath, long serverId) {
-        ArrayList<Bundle> fileList = new ArrayList<>();
+        ListingEngine.ListingBuffer buffer = ListingEngine.list(filePath, CachedFileList.getEntryCount(filePath));
+        if (buffer != null) return getFileList(buffer, serverId);
+        return getFileListWithoutEngine(filePath, serverId);
+    }
+
+    //entries the buffer has so far, it may still be filled by another thread
+    static ArrayList<Bundle> getFileList(ListingEngine.ListingBuffer buffer, long serverId) {
+        synchronized (buffer) {
+            int count = buffer.size();
+            ArrayList<Bundle> fileList = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                fileList.add(getFileObject(buffer.getPath(i), buffer.getName(i), buffer.isFile(i), buffer.getSize(i), buffer.getDate(i), serverId));
+            }
+            return fileList;
+        }
+    }
+
+    static ArrayList<Bundle> getFileListWithoutEngine(String filePath, long serverId) {
+        return getFileListWithoutEngine(filePath, serverId, new ArrayList<>());
+    }
+
+    //partial gets each entry as soon as it is read, another thread may copy it meanwhile
+    static ArrayList<Bundle> getFileListWithoutEngine(String filePath, long serverId, ArrayList<Bundle> partial) {
         SuFile[] files = new SuFile(filePath).listFiles();
-        if (files == null) return fileList;
-        for (SuFile file : files)
-            fileList.add(getFileObject(file, serverId));
-        return fileList;
+        if (files == null) return new ArrayList<>();
+        for (SuFile file : files) {
+            Bundle fileObject = getFileObject(file, serverId);
+            synchronized (partial) {
+                partial.add(fileObject);
+            }
+        }
+        synchronized (partial) {
+            return new ArrayList<>(partial);
+        }
     }
 
     public static ArrayList<Bundle> getFileListWithCache(String filePath, long serverId) {
+        if (ArchiveIndex.mayBeVirtual(filePath)) {
+            //archives keep their own index, so their listings are not cached here
+            ArrayList<Bundle> fileList = ArchiveIndex.getFileList(filePath, serverId);
+            if (fileList != null) return fileList;
+        }
         if (CachedFileList.contains(filePath)) {
-            //return cached file list and update it in async
-            Executors.newSingleThreadExecutor().execute(() -> CachedFileList.saveFileList(filePath, getFileList(filePath, serverId)));
+            //return cached file list and check it in async
+            revalidate(filePath, serverId);
             return CachedFileList.get(filePath);
         } else {
             //return file list and cache it
-            return CachedFileList.saveFileList(filePath, getFileList(filePath, serverId));
+            String fingerprint = getFingerprints(Collections.singletonList(filePath)).get(filePath);
+            return CachedFileList.saveFileList(filePath, getFileList(filePath, serverId), fingerprint);
+        }
+    }
+
+    //a cached listing is answered at once, anything else is scanned by a ListingScan the caller can wait for with a deadline
+    public static ListingScan getFileListWithDeadline(String filePath, long serverId) {
+        if (ArchiveIndex.mayBeVirtual(filePath) || CachedFileList.contains(filePath)) {
+            return ListingScan.completed(getFileListWithCache(filePath, serverId));
         }
+        return ListingScan.start(filePath, serverId);
+    }
+
+    //requests within REVALIDATE_DELAY share one stat call, only changed folders are listed again
+    private static void revalidate(String filePath, long serverId) {
+        synchronized (sPendingRevalidations) {
+            boolean isScheduled = !sPendingRevalidations.isEmpty();
+            sPendingRevalidations.put(filePath, serverId);
+            if (isScheduled) return;
+        }
+        sRevalidateExecutor.schedule(() -> {
+            HashMap<String, Long> pending;
+            synchronized (sPendingRevalidations) {
+                pending = new HashMap<>(sPendingRevalidations);
+                sPendingRevalidations.clear();
+            }
+            HashMap<String, Long> versions = new HashMap<>();
+            for (String path : pending.keySet()) versions.put(path, CachedFileList.getVersion(path));
+            HashMap<String, String> fingerprints = getFingerprints(pending.keySet());
+            for (String path : pending.keySet()) {
+                String fingerprint = fingerprints.get(path);
+                if (fingerprint == null) {
+                    CachedFileList.removeFileList(path); //gone or not accessible anymore
+                } else if (!fingerprint.equals(CachedFileList.getFingerprint(path))) {
+                    CachedFileList.saveFileList(path, getFileList(path, pending.get(path)), versions.get(path), fingerprint);
+                }
+            }
+        }, REVALIDATE_DELAY, TimeUnit.MILLISECONDS);
+    }
+
+    //inode, link count (2 + subfolders on most file systems) and mtime with nanoseconds of each folder
+    static HashMap<String, String> getFingerprints(Collection<String> paths) {
+        if (paths.isEmpty()) return new HashMap<>();
+        return parseFingerprints(Shell.cmd(getFingerprintCommand(paths)).exec().getOut());
+    }
+
+    static String getFingerprintCommand(Collection<String> paths) {
+        //follows links, a symlinked folder changes with what it points to
+        StringBuilder command = new StringBuilder("stat -L -c '%i %h %y|%n'");
+        for (String path : paths) command.append(" ").append(quote(path));
+        return command.append(" 2>/dev/null").toString();
+    }
+
+    static HashMap<String, String> parseFingerprints(List<String> lines) {
+        HashMap<String, String> fingerprints = new HashMap<>();
+        for (String line : lines) {
+            int index = line.indexOf('|');
+            if (index > 0) fingerprints.put(line.substring(index + 1), line.substring(0, index));
+        }
+        return fingerprints;
+    }
+
+    //device id of each path, of the link itself unless follow is set
+    static HashMap<String, String> getDevices(List<String> paths, boolean follow) {
+        HashMap<String, String> devices = new HashMap<>();
+        for (int start = 0; start < paths.size(); start += 256) { //keeps a command well below the argument limit
+            StringBuilder command = new StringBuilder(follow ? "stat -L" : "stat").append(" -c '%d|%n'");
+            for (String path : paths.subList(start, Math.min(paths.size(), start + 256))) command.append(' ').append(quote(path));
+            for (String line : Shell.cmd(command.append(" 2>/dev/null").toString()).exec().getOut()) {
+                int index = line.indexOf('|');
+                if (index > 0) devices.put(line.substring(index + 1), line.substring(0, index));
+            }
+        }
+        return devices;
+    }
+
+    static String quote(String path) {
+        return "'" + path.replace("'", "'\\''") + "'";
     }
 
     public static void clearPathCache(String path, boolean parent) {
         if (parent) path = path.substring(0, path.lastIndexOf("/"));
         if (path == null) return;
-        Log.e("clearCache", path);
+        Trace.d("clearCache", path);
         CachedFileList.removeFileList(path);
+        FolderSizes.invalidate(path);
+    }
+
+    //keeps a patched listing, drops it if patching was not possible
+    private static void updatePathCache(String path, boolean isPatched) {
+        FolderSizes.invalidate(path);
+        if (!isPatched) {
+            CachedFileList.removeFileList(path);
+            return;
+        }
+        long version = CachedFileList.getVersion(path);
+        CachedFileList.setFingerprint(path, version, getFingerprints(Collections.singletonList(path)).get(path));
+    }
+
+    private static void addToPathCache(String path, String filePath) {
+        long serverId = CachedFileList.getServerId(path);
+        updatePathCache(path, serverId >= 0 && CachedFileList.addEntry(path, statFileObject(filePath, serverId)));
+    }
+
+    private static String getParentPath(String path) {
+        int index = path.lastIndexOf("/");
+        return index > 0 ? path.substring(0, index) : "/";
     }
 
     public static Bundle getFileObject(String filePath, long serverId) {
-        return getFileObject(new SuFile(filePath), serverId);
+        if (ArchiveIndex.mayBeVirtual(filePath)) {
+            Bundle bFile = ArchiveIndex.getFileObject(filePath, serverId);
+            if (bFile != null) return bFile;
+        }
+        Bundle bFile = findCachedEntry(filePath);
+        if (bFile != null && bFile != CachedFileList.NOT_FOUND) {
+            if (bFile.getLong("serverId") == serverId) return bFile;
+            bFile = new Bundle(bFile);
+            bFile.putLong("serverId", serverId);
+            return bFile;
+        }
+        return statFileObject(filePath, serverId);
+    }
+
+    //bursts after a navigation mostly ask for entries of the folder just listed
+    //the parent is stated in the shared batch first, so a change made outside the service is never answered from the cache
+    private static Bundle findCachedEntry(String filePath) {
+        int index = filePath.lastIndexOf("/");
+        if (index < 0 || index == filePath.length() - 1) return null;
+        String parentPath = getParentPath(filePath);
+        Bundle bFile = CachedFileList.findEntry(parentPath, filePath.substring(index + 1));
+        if (bFile == null) {
+            Metrics.add("stat.cacheMisses", 1);
+            return null;
+        }
+        StatBatch.Stat parent = StatBatch.stat(parentPath);
+        long serverId = CachedFileList.getServerId(parentPath);
+        if (parent == null || !parent.fingerprint.equals(CachedFileList.getFingerprint(parentPath))) {
+            Metrics.add("stat.staleParents", 1);
+            if (serverId >= 0) revalidate(parentPath, serverId);
+            return null;
+        }
+        Metrics.add("stat.cacheHits", 1);
+        return bFile;
+    }
+
+    //a fresh stat, never from the cache, so it can be used to patch the cache
+    private static Bundle statFileObject(String filePath, long serverId) {
+        StatBatch.Stat stat = StatBatch.stat(filePath);
+        String path = filePath.length() > 1 && filePath.endsWith("/") ? filePath.substring(0, filePath.length() - 1) : filePath;
+        return getFileObject(path, path.substring(path.lastIndexOf("/") + 1), stat != null && stat.isFile, stat != null ? stat.size : 0, stat != null ? stat.lastModified : 0, serverId);
     }
 
     private static Bundle getFileObject(SuFile file, long serverId) {
+        boolean isFile = file.isFile();
+        return getFileObject(file.getPath(), file.getName(), isFile, isFile ? file.length() : 0, file.lastModified(), serverId);
+    }
+
+    static Bundle getFileObject(String filePath, String fileName, boolean isFile, long length, long lastModified, long serverId) {
         Bundle bFile = new Bundle();
         bFile.putLong("serverId", serverId);
-        bFile.putString("filePath", file.getPath());
-        bFile.putString("fileName", file.getName());
-        bFile.putBoolean("isDirectory", !file.isFile());
-        if (file.isFile()) bFile.putLong("fileSize", file.length());
-        bFile.putLong("fileDate", file.lastModified());
+        bFile.putString("filePath", filePath);
+        bFile.putString("fileName", fileName);
+        bFile.putBoolean("isDirectory", !isFile);
+        if (isFile) {
+            bFile.putLong("fileSize", length);
+            if (ArchiveIndex.isArchiveName(fileName)) bFile.putBoolean("isArchive", true); //can be listed with GET_FILE_LIST
+        } else {
+            //only report folder sizes which are already known, computing them is up to GET_FOLDER_SIZE
+            long folderSize = FolderSizes.getCachedSize(filePath, lastModified);
+            if (folderSize >= 0) bFile.putLong("fileSize", folderSize);
+        }
+        bFile.putLong("fileDate", lastModified);
         return bFile;
     }
 
     public static ParcelFileDescriptor getFileDescriptor(String filePath) {
+        return getFileDescriptor(filePath, 0, -1);
+    }
+
+    //length bytes from offset on, length -1 reads to the end of the file
+    public static ParcelFileDescriptor getFileDescriptor(String filePath, long offset, long length) {
         try {
-            InputStream inputStream = SuFileInputStream.open(filePath);
+            InputStream inputStream = openRange(filePath, Math.max(0, offset), length);
             ParcelFileDescriptor[] pipe = ParcelFileDescriptor.createPipe();
             new TransferThread(inputStream, new ParcelFileDescriptor.AutoCloseOutputStream(pipe[1])).start();
             return pipe[0];
@@ -167,10 +436,72 @@ public class FileManager {
         }
     }
 
+    private static InputStream openRange(String filePath, long offset, long length) throws IOException {
+        InputStream inputStream = ArchiveIndex.mayBeVirtual(filePath) ? ArchiveIndex.open(filePath) : null;
+        if (inputStream != null) {
+            //entries are inflated from the start, there is nothing to seek in
+            long left = offset;
+            while (left > 0) {
+                long skipped = inputStream.skip(left);
+                if (skipped > 0) left -= skipped;
+                else if (inputStream.read() >= 0) left--;
+                else break;
+            }
+            return length < 0 ? inputStream : limit(inputStream, length);
+        }
+        if (!new File(filePath).canRead()) {
+            //files of /data or /system, small ones are kept so opening them again costs no root stream
+            byte[] data = PreviewCache.get(filePath);
+            if (data != null) {
+                int start = (int) Math.min(offset, data.length);
+                int end = length < 0 ? data.length : (int) Math.min(data.length, start + length);
+                return new ByteArrayInputStream(data, start, end - start);
+            }
+            return RootFiles.open(filePath, offset, length);
+        }
+        if (offset > 0 || length >= 0) return openFile(filePath, offset, length);
+        return SuFileInputStream.open(filePath);
+    }
+
+    //length bytes of a file from offset on, length -1 reads to the end, files the app cannot read go through RootFiles
+    static InputStream openFile(String filePath, long offset, long length) throws IOException {
+        if (!new File(filePath).canRead()) return RootFiles.open(filePath, offset, length);
+        FileInputStream in = new FileInputStream(filePath);
+        try {
+            in.getChannel().position(offset);
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        return length < 0 ? in : limit(in, length);
+    }
+
+    static InputStream limit(InputStream in, long length) {
+        return new FilterInputStream(in) {
+            long left = length;
+
+            @Override
+            public int read() throws IOException {
+                if (left <= 0) return -1;
+                int b = super.read();
+                if (b >= 0) left--;
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (left <= 0) return -1;
+                int n = super.read(b, off, (int) Math.min(len, left));
+                if (n > 0) left -= n;
+                return n;
+            }
+        };
+    }
+
     public static ArrayList<Bundle> getSharedFolderRootDir(long serverId) {
     // For Root (serverId == 1), return actual root directory contents
     if (serverId == 1) {
-        return getFileList("/", serverId);
+        return getFileListWithCache("/", serverId);
     }
     
     // For other servers, create an intermediate folder entry
@@ -183,12 +514,6 @@ public class FileManager {
     return fileList;
     }
 
-    public static String getSDCardPath() {
-        SuFile storages = new SuFile("storage");
-        String[] list = storages.list((file, s) -> s.matches("([A-Z0-9]){4}-([A-Z0-9]){4}"));
-        return list.length > 0 ? list[0] : null;
-    }
-
     private static class TransferThread extends Thread {
         final InputStream mIn;
         final OutputStream mOut;
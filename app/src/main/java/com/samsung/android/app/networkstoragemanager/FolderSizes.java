@@ -0,0 +1,154 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import com.topjohnwu.superuser.Shell;
+import com.topjohnwu.superuser.io.SuFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+public class FolderSizes {
+    private static final long TIMESTAMP_SLACK = 2000; //fat keeps mtimes in 2 s steps, changes that close to a walk count as newer
+    private static final int MAX_CHANGES = 1000; //beyond this the whole tree is counted again
+
+    private static final ConcurrentHashMap<String, CachedSize> sCachedSizes = new ConcurrentHashMap<>();
+    private static final ForkJoinPool sPool = new ForkJoinPool(4);
+
+    static {
+        //sizes of unchanged folders are cheap to keep but expensive to compute again, so only drop them at the end
+        MemoryPressure.register(tier -> {
+            if (tier >= MemoryPressure.TRIM_TO_FLOOR) clear();
+        });
+    }
+
+    //cached totals below path are only reused after one find showed nothing below them changed since they were counted
+    //a folder mtime alone misses changes deeper down and changes to file contents
+    public static long getFolderSize(String path) {
+        long startTime = System.currentTimeMillis();
+        validate(path, startTime);
+        return sPool.invoke(new SizeTask(new SuFile(path), startTime));
+    }
+
+    private static void validate(String path, long startTime) {
+        String prefix = path.equals("/") ? "/" : path + "/";
+        long countedAt = Long.MAX_VALUE;
+        for (Map.Entry<String, CachedSize> entry : sCachedSizes.entrySet()) {
+            if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) countedAt = Math.min(countedAt, entry.getValue().countedAt);
+        }
+        if (countedAt == Long.MAX_VALUE) return;
+
+        List<String> changed = null;
+        File stamp = null;
+        try {
+            stamp = File.createTempFile("folder-size", null);
+            if (stamp.setLastModified(countedAt - TIMESTAMP_SLACK)) {
+                changed = Shell.cmd("find " + FileManager.quote(path) + " -newer " + FileManager.quote(stamp.getPath()) + " 2>/dev/null | head -n " + (MAX_CHANGES + 1)).exec().getOut();
+            }
+        } catch (IOException e) {
+            Trace.e("folderSizes", path, e);
+        } finally {
+            if (stamp != null) stamp.delete();
+        }
+        if (changed == null || changed.size() > MAX_CHANGES) {
+            invalidateTree(path);
+            return;
+        }
+        Metrics.add("folderSize.changedEntries", changed.size());
+        //a changed folder has other entries, a changed file another size, both change the totals above them
+        for (String changedPath : changed) invalidate(changedPath);
+        //what is left has been checked up to now
+        for (Map.Entry<String, CachedSize> entry : sCachedSizes.entrySet()) {
+            CachedSize cached = entry.getValue();
+            if (entry.getKey().equals(path) || entry.getKey().startsWith(prefix)) {
+                sCachedSizes.replace(entry.getKey(), cached, new CachedSize(cached.lastModified, cached.size, startTime));
+            }
+        }
+    }
+
+    //cached total or -1, never walks the tree
+    public static long getCachedSize(String path, long lastModified) {
+        CachedSize cached = sCachedSizes.get(path);
+        return cached != null && cached.lastModified == lastModified ? cached.size : -1;
+    }
+
+    //content of path changed: its total and the totals of all parents are outdated
+    public static void invalidate(String path) {
+        while (path != null && !path.isEmpty()) {
+            sCachedSizes.remove(path);
+            int index = path.lastIndexOf("/");
+            path = index > 0 ? path.substring(0, index) : null;
+        }
+        sCachedSizes.remove("/");
+    }
+
+    //path itself was removed or replaced: also drop everything below it
+    public static void invalidateTree(String path) {
+        String prefix = path + "/";
+        Iterator<Map.Entry<String, CachedSize>> iterator = sCachedSizes.entrySet().iterator();
+        while (iterator.hasNext()) {
+            if (iterator.next().getKey().startsWith(prefix)) iterator.remove();
+        }
+        invalidate(path);
+    }
+
+    public static void clear() {
+        sCachedSizes.clear();
+    }
+
+    private static class CachedSize {
+        final long lastModified;
+        final long size;
+        final long countedAt; //start of the walk that counted or last validated it
+
+        CachedSize(long lastModified, long size, long countedAt) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.countedAt = countedAt;
+        }
+    }
+
+    private static class SizeTask extends RecursiveTask<Long> {
+        final SuFile mDir;
+        final long mStartTime;
+
+        SizeTask(SuFile dir, long startTime) {
+            mDir = dir;
+            mStartTime = startTime;
+        }
+
+        @Override
+        protected Long compute() {
+            String path = mDir.getPath();
+            //validate left only totals without changes below them, their subfolders are not walked again
+            CachedSize cached = sCachedSizes.get(path);
+            if (cached != null) return cached.size;
+            long lastModified = mDir.lastModified();
+
+            SuFile[] files = mDir.listFiles();
+            if (files == null) return 0L;
+
+            //fork the subfolders first, sum up the files while they run
+            long size = 0;
+            ArrayList<SizeTask> tasks = new ArrayList<>();
+            for (SuFile file : files) {
+                if (file.isDirectory() && !file.isSymlink()) {
+                    SizeTask task = new SizeTask(file, mStartTime);
+                    task.fork();
+                    tasks.add(task);
+                } else if (file.isFile()) {
+                    size += file.length();
+                }
+            }
+            for (SizeTask task : tasks) size += task.join();
+
+            sCachedSizes.put(path, new CachedSize(lastModified, size, mStartTime));
+            return size;
+        }
+    }
+}
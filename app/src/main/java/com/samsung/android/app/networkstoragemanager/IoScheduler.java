@@ -0,0 +1,113 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Process;
+import android.os.SystemClock;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//bulk transfers run at background priority and give way to browsing through a shared token bucket
+public class IoScheduler implements RequestCode {
+    private static final long BUSY_RATE = 8 * 1024 * 1024; //bytes per second for bulk work while someone browses
+    private static final long BUSY_HOLD = 500; //ms after the last interactive request that still count as busy
+    private static final long BURST = 250; //ms of transfer allowed without waiting
+
+    private static final ThreadLocal<Bulk> sBulk = new ThreadLocal<>();
+    private static final AtomicInteger sBulkCount = new AtomicInteger();
+    private static final AtomicInteger sInteractiveCount = new AtomicInteger();
+    private static volatile long sLastInteractive;
+
+    private static final Object sBucketLock = new Object();
+    private static long sAvailable;
+    private static long sLastRefill;
+
+    public static boolean isBulk(int reqCode) {
+        return reqCode == INTERNAL_COPY || reqCode == INTERNAL_MOVE || reqCode == UPLOAD || reqCode == BATCH_OPERATION || reqCode == FIND_DUPLICATES;
+    }
+
+    public static boolean isInteractive(int reqCode) {
+        return reqCode == GET_FILE_LIST || reqCode == GET_FILE_OBJECT || reqCode == GET_FILE_DESCRIPTOR || reqCode == GET_SHARED_FOLDER || reqCode == EXIST;
+    }
+
+    //maxBytesPerSecond of 0 only limits bulk work while interactive requests are running
+    public static void beginBulk(long maxBytesPerSecond) {
+        int tid = Process.myTid();
+        sBulk.set(new Bulk(maxBytesPerSecond, Process.getThreadPriority(tid)));
+        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+        sBulkCount.incrementAndGet();
+    }
+
+    public static void endBulk() {
+        Bulk bulk = sBulk.get();
+        if (bulk == null) return;
+        sBulk.remove();
+        sBulkCount.decrementAndGet();
+        Process.setThreadPriority(bulk.priority); //binder threads serve the next request as they were
+    }
+
+    //runs callable on a pool thread with the bulk settings of the calling thread
+    public static <T> Callable<T> inheritBulk(Callable<T> callable) {
+        Bulk bulk = sBulk.get();
+        if (bulk == null) return callable;
+        return () -> {
+            beginBulk(bulk.maxBytesPerSecond);
+            try {
+                return callable.call();
+            } finally {
+                endBulk();
+            }
+        };
+    }
+
+    public static long beginInteractive() {
+        sInteractiveCount.incrementAndGet();
+        return SystemClock.elapsedRealtime();
+    }
+
+    //latency is kept apart for requests that had to share storage with a bulk transfer
+    public static void endInteractive(long startTime) {
+        long now = SystemClock.elapsedRealtime();
+        sLastInteractive = now;
+        sInteractiveCount.decrementAndGet();
+        String key = sBulkCount.get() > 0 ? "io.interactiveWithBulk" : "io.interactiveIdle";
+        Metrics.add(key + "Count", 1);
+        Metrics.add(key + "Ms", now - startTime);
+    }
+
+    //called by bulk transfers for every chunk, waits until the bucket has room for it
+    public static void throttle(int bytes) {
+        Bulk bulk = sBulk.get();
+        if (bulk == null) return;
+        long rate = getRate(bulk.maxBytesPerSecond);
+        if (rate <= 0) return;
+        long waitMs;
+        synchronized (sBucketLock) {
+            long now = SystemClock.elapsedRealtime();
+            sAvailable = Math.min(rate * BURST / 1000, sAvailable + (now - sLastRefill) * rate / 1000);
+            sLastRefill = now;
+            sAvailable -= bytes;
+            waitMs = sAvailable < 0 ? -sAvailable * 1000 / rate : 0;
+        }
+        if (waitMs <= 0) return;
+        Metrics.add("io.bulkThrottledMs", waitMs);
+        SystemClock.sleep(waitMs);
+    }
+
+    private static long getRate(long maxBytesPerSecond) {
+        boolean isBusy = sInteractiveCount.get() > 0 || SystemClock.elapsedRealtime() - sLastInteractive < BUSY_HOLD;
+        if (!isBusy) return maxBytesPerSecond;
+        return maxBytesPerSecond > 0 ? Math.min(maxBytesPerSecond, BUSY_RATE) : BUSY_RATE;
+    }
+
+    private static class Bulk {
+        final long maxBytesPerSecond;
+        final int priority;
+
+        Bulk(long maxBytesPerSecond, int priority) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            this.priority = priority;
+        }
+    }
+}
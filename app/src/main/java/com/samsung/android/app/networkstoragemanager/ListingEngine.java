@@ -0,0 +1,253 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.Context;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.function.Consumer;
+
+//lists a folder with one root find + stat pipeline and parses its bytes straight into a ListingBuffer
+public class ListingEngine {
+    private static final String FORMAT = "%f %s %Y %n"; //raw mode in hex, size, mtime in seconds, path
+    private static final String TARGET_FORMAT = "> " + FORMAT; //what a link points to, replaces the link's own fields
+    private static final int PARALLEL_THRESHOLD = 2000; //entries of the last listing above which stat is fanned out
+    private static final int PARALLELISM = 4;
+    private static final int BATCH_SIZE = 1024;
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFREG = 0100000;
+    private static final int S_IFLNK = 0120000;
+
+    private static volatile File sWorkDir;
+    private static volatile Boolean sHasParallelXargs;
+
+    public static void init(Context context) {
+        sWorkDir = context.getCacheDir();
+    }
+
+    //null if the engine cannot be used here, the caller lists the folder the old way then
+    public static ListingBuffer list(String path, int sizeHint) {
+        ListingBuffer buffer = new ListingBuffer();
+        return list(path, sizeHint, buffer, process -> {
+        }) ? buffer : null;
+    }
+
+    //fills buffer while the folder is read, so another thread can look at the entries scanned so far
+    //the pipeline is a root process of its own, started gets it, so it can be killed if a hung mount never lets it finish
+    public static boolean list(String path, int sizeHint, ListingBuffer buffer, Consumer<RootProcess> started) {
+        File workDir = sWorkDir;
+        if (workDir == null) return false;
+        //each worker gets one batch, so a huge folder costs PARALLELISM extra processes and not one per BATCH_SIZE
+        int batchSize = sizeHint > PARALLEL_THRESHOLD && hasParallelXargs() ? Math.max(BATCH_SIZE, sizeHint / PARALLELISM + 1) : 0;
+
+        long startTime = System.nanoTime();
+        RootProcess process;
+        try {
+            process = RootProcess.start(command(path, batchSize, workDir.getPath()), false, true);
+        } catch (IOException e) {
+            Trace.e("listingEngine", path, e);
+            return false;
+        }
+        started.accept(process);
+        try {
+            read(process.getInputStream(), buffer);
+            //stat exits 1 as soon as one entry vanished while the folder was read, so only what was parsed counts
+            //nothing parsed can be an empty folder as well as an unreadable one, the old way tells them apart
+            process.waitFor();
+            //a name with a newline splits its line, the part before it was taken for an entry of its own
+            if (buffer.size() == 0 || buffer.hasBrokenLines()) return false;
+            Metrics.add("listing.engineCount", 1);
+            Metrics.add("listing.engineEntries", buffer.size());
+            Metrics.add("listing.engineMs", (System.nanoTime() - startTime) / 1000000);
+            return true;
+        } catch (IOException | InterruptedException e) {
+            Trace.e("listingEngine", path, e);
+            process.destroy();
+            return false;
+        }
+    }
+
+    //find reads the folder once with getdents, stat gets batches of its entries instead of one call per file
+    //in parallel each batch writes a file of its own, as stdio of concurrent stat processes would mix lines
+    //entries are stated as they are, so dangling links are kept, and links are followed in a second pass after all entries
+    //batchSize 0 runs a single stat
+    static String command(String path, int batchSize, String workDir) {
+        String find = "find " + FileManager.quote(path) + " -mindepth 1 -maxdepth 1";
+        String targets = "; " + find + " -type l -exec stat -L -c '" + TARGET_FORMAT + "' {} + 2>/dev/null";
+        if (batchSize <= 0) return find + " -exec stat -c '" + FORMAT + "' {} + 2>/dev/null" + targets;
+        return "T=$(mktemp -d " + FileManager.quote(workDir + "/listing.XXXXXX") + ") && " + find + " -print0"
+                + " | xargs -0 -P " + PARALLELISM + " -n " + batchSize + " sh -c 'stat -c \"" + FORMAT + "\" \"$@\" > \"$0/$$\" 2>/dev/null' \"$T\";"
+                + " cat \"$T\"/*; rm -rf \"$T\"" + targets;
+    }
+
+    private static boolean hasParallelXargs() {
+        if (sHasParallelXargs == null) sHasParallelXargs = Shell.cmd("echo x | xargs -P 2 -n 1 true").exec().isSuccess();
+        return sHasParallelXargs;
+    }
+
+    //lines of FORMAT followed by lines of TARGET_FORMAT, anything malformed is skipped up to the next line
+    //a line cut off at the end of the stream is dropped, the process was killed while it was written
+    static void read(InputStream in, ListingBuffer buffer) throws IOException {
+        byte[] chunk = new byte[64 * 1024];
+        int field = 0;
+        long value = 0;
+        boolean isNegative = false;
+        boolean isBroken = false;
+        boolean isTarget = false;
+        boolean isLineStart = true;
+        int len;
+        while ((len = in.read(chunk)) > 0) {
+            for (int i = 0; i < len; i++) {
+                byte b = chunk[i];
+                boolean wasLineStart = isLineStart;
+                isLineStart = false;
+                if (b == '\n') {
+                    if (field == 3 && !isBroken && isTarget) buffer.endTarget();
+                    else if (field == 3 && !isBroken) buffer.endEntry();
+                    else if (!wasLineStart) buffer.dropLine();
+                    field = 0;
+                    value = 0;
+                    isNegative = false;
+                    isBroken = false;
+                    isTarget = false;
+                    isLineStart = true;
+                } else if (isBroken) {
+                    //wait for the end of the line
+                } else if (wasLineStart && b == '>') {
+                    isTarget = true;
+                    field = -1; //the space after the marker starts field 0
+                } else if (field == -1) {
+                    if (b == ' ') field = 0;
+                    else isBroken = true;
+                } else if (field == 3) {
+                    buffer.appendName(b);
+                } else if (b == ' ') {
+                    if (field == 0) buffer.mode = (int) value;
+                    else if (field == 1) buffer.size = value;
+                    else buffer.date = (isNegative ? -value : value) * 1000;
+                    field++;
+                    value = 0;
+                    isNegative = false;
+                } else if (field == 0 && Character.digit(b, 16) >= 0) {
+                    value = value * 16 + Character.digit(b, 16);
+                } else if (b >= '0' && b <= '9') {
+                    value = value * 10 + (b - '0');
+                } else if (b == '-' && field == 2 && value == 0) {
+                    isNegative = true;
+                } else {
+                    isBroken = true;
+                }
+            }
+        }
+        buffer.dropEntry();
+    }
+
+    //entries in flat arrays, paths as utf-8 bytes, Strings are only made when a Bundle is built
+    //entries below size() can be read under the buffer's lock while the reader thread is still adding more
+    public static class ListingBuffer {
+        private byte[] mNames = new byte[16 * 1024];
+        private int mNamesLength;
+        private int[] mNameEnds = new int[64];
+        private int[] mModes = new int[64];
+        private long[] mSizes = new long[64];
+        private long[] mDates = new long[64];
+        private int mCount;
+        private int mEntryStart;
+        private final HashMap<String, Integer> mLinks = new HashMap<>(); //path to index of links not followed yet
+        private boolean mHasBrokenLines;
+
+        int mode;
+        long size;
+        long date;
+
+        void appendName(byte b) {
+            if (mNamesLength == mNames.length) grow();
+            mNames[mNamesLength++] = b;
+        }
+
+        private synchronized void grow() {
+            mNames = Arrays.copyOf(mNames, mNames.length * 2);
+        }
+
+        synchronized void endEntry() {
+            if (mCount == mNameEnds.length) {
+                int capacity = mCount * 2;
+                mNameEnds = Arrays.copyOf(mNameEnds, capacity);
+                mModes = Arrays.copyOf(mModes, capacity);
+                mSizes = Arrays.copyOf(mSizes, capacity);
+                mDates = Arrays.copyOf(mDates, capacity);
+            }
+            mNameEnds[mCount] = mNamesLength;
+            mModes[mCount] = mode;
+            mSizes[mCount] = size;
+            mDates[mCount] = date;
+            if ((mode & S_IFMT) == S_IFLNK) mLinks.put(getPath(mCount), mCount);
+            mCount++;
+            mEntryStart = mNamesLength;
+        }
+
+        //the fields of what a link points to replace the link's own, the path is not added again
+        synchronized void endTarget() {
+            Integer index = mLinks.remove(new String(mNames, mEntryStart, mNamesLength - mEntryStart, StandardCharsets.UTF_8));
+            if (index != null) {
+                mModes[index] = mode;
+                mSizes[index] = size;
+                mDates[index] = date;
+            }
+            dropEntry();
+        }
+
+        void dropEntry() {
+            mNamesLength = mEntryStart;
+        }
+
+        synchronized void dropLine() {
+            dropEntry();
+            mHasBrokenLines = true;
+        }
+
+        public synchronized boolean hasBrokenLines() {
+            return mHasBrokenLines;
+        }
+
+        public synchronized int size() {
+            return mCount;
+        }
+
+        private int getStart(int index) {
+            return index > 0 ? mNameEnds[index - 1] : 0;
+        }
+
+        public String getPath(int index) {
+            int start = getStart(index);
+            return new String(mNames, start, mNameEnds[index] - start, StandardCharsets.UTF_8);
+        }
+
+        public String getName(int index) {
+            int start = getStart(index);
+            int end = mNameEnds[index];
+            int nameStart = end;
+            while (nameStart > start && mNames[nameStart - 1] != '/') nameStart--;
+            return new String(mNames, nameStart, end - nameStart, StandardCharsets.UTF_8);
+        }
+
+        //a link still unresolved is dangling, it is shown as a file rather than a folder nobody can open
+        public boolean isFile(int index) {
+            int type = mModes[index] & S_IFMT;
+            return type == S_IFREG || type == S_IFLNK;
+        }
+
+        public long getSize(int index) {
+            return mSizes[index];
+        }
+
+        public long getDate(int index) {
+            return mDates[index];
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Pattern;
+
+//optional sorting, filtering and paging of GET_FILE_LIST, folders always come first
+public class ListingOrder {
+    public static final int SORT_NONE = 0;
+    public static final int SORT_NAME = 1;
+    public static final int SORT_SIZE = 2;
+    public static final int SORT_DATE = 3;
+    public static final int SORT_TYPE = 4;
+
+    private static final Comparator<String> NAME_ORDER = String.CASE_INSENSITIVE_ORDER;
+
+    //extras: sortBy (name, size, date, type), sortDescending, showHidden, namePattern (* and ?), offset, count
+    public static boolean isRequested(Bundle extras) {
+        return extras.containsKey("sortBy") || extras.containsKey("showHidden") || extras.containsKey("namePattern")
+                || extras.containsKey("offset") || extras.containsKey("count");
+    }
+
+    //puts the matching entries of the requested page into result, with totalCount of all matching entries
+    public static void apply(String path, ArrayList<Bundle> fileList, Bundle extras, Bundle result) {
+        int sortBy = getSortKey(extras.getString("sortBy"));
+        boolean isDescending = extras.getBoolean("sortDescending", false);
+        boolean showHidden = extras.getBoolean("showHidden", true);
+        String namePattern = extras.getString("namePattern");
+        Pattern pattern = namePattern != null && !namePattern.isEmpty() ? toPattern(namePattern) : null;
+        int offset = Math.max(0, extras.getInt("offset", 0));
+        int count = extras.getInt("count", Integer.MAX_VALUE);
+
+        int[] permutation = sortBy != SORT_NONE ? getPermutation(path, fileList, sortBy * 2 + (isDescending ? 1 : 0)) : null;
+        ArrayList<Bundle> page = new ArrayList<>(Math.min(count, fileList.size()));
+        int matched = 0;
+        for (int i = 0; i < fileList.size(); i++) {
+            Bundle bFile = fileList.get(permutation != null ? permutation[i] : i);
+            String fileName = bFile.getString("fileName", "");
+            if (!showHidden && fileName.startsWith(".")) continue;
+            if (pattern != null && !bFile.getBoolean("isDirectory") && !pattern.matcher(fileName).matches()) continue;
+            if (matched >= offset && matched - offset < count) page.add(bFile);
+            matched++;
+        }
+        result.putParcelableArrayList("fileList", page);
+        result.putInt("totalCount", matched);
+    }
+
+    private static int getSortKey(String sortBy) {
+        if (sortBy == null) return SORT_NONE;
+        switch (sortBy) {
+            case "name":
+                return SORT_NAME;
+            case "size":
+                return SORT_SIZE;
+            case "date":
+                return SORT_DATE;
+            case "type":
+                return SORT_TYPE;
+            default:
+                return SORT_NONE;
+        }
+    }
+
+    //sorting a large folder again for every page would cost more than shipping it, so the order is kept with the listing
+    private static int[] getPermutation(String path, ArrayList<Bundle> fileList, int order) {
+        int[] permutation = CachedFileList.getSortOrder(path, fileList, order);
+        if (permutation != null) {
+            Metrics.add("listing.sortHits", 1);
+            return permutation;
+        }
+        Metrics.add("listing.sortMisses", 1);
+
+        int size = fileList.size();
+        Integer[] indexes = new Integer[size];
+        for (int i = 0; i < size; i++) indexes[i] = i;
+        Comparator<Integer> comparator = getComparator(fileList, order / 2);
+        if (order % 2 == 1) comparator = comparator.reversed();
+        //folders first in either direction
+        Comparator<Integer> foldersFirst = Comparator.comparing(i -> !fileList.get(i).getBoolean("isDirectory"));
+        Arrays.sort(indexes, foldersFirst.thenComparing(comparator));
+
+        permutation = new int[size];
+        for (int i = 0; i < size; i++) permutation[i] = indexes[i];
+        CachedFileList.setSortOrder(path, fileList, order, permutation);
+        return permutation;
+    }
+
+    private static Comparator<Integer> getComparator(ArrayList<Bundle> fileList, int sortBy) {
+        Comparator<Integer> byName = (a, b) -> NAME_ORDER.compare(fileList.get(a).getString("fileName", ""), fileList.get(b).getString("fileName", ""));
+        switch (sortBy) {
+            case SORT_SIZE:
+                return Comparator.<Integer>comparingLong(i -> fileList.get(i).getLong("fileSize", 0)).thenComparing(byName);
+            case SORT_DATE:
+                return Comparator.<Integer>comparingLong(i -> fileList.get(i).getLong("fileDate", 0)).thenComparing(byName);
+            case SORT_TYPE:
+                return Comparator.<Integer, String>comparing(i -> getExtension(fileList.get(i).getString("fileName", "")), NAME_ORDER).thenComparing(byName);
+            default:
+                return byName;
+        }
+    }
+
+    private static String getExtension(String fileName) {
+        int index = fileName.lastIndexOf('.');
+        return index > 0 ? fileName.substring(index + 1) : "";
+    }
+
+    private static Pattern toPattern(String glob) {
+        StringBuilder regex = new StringBuilder();
+        for (String part : glob.split("((?<=[*?])|(?=[*?]))")) {
+            if (part.equals("*")) {
+                regex.append(".*");
+            } else if (part.equals("?")) {
+                regex.append('.');
+            } else if (!part.isEmpty()) {
+                regex.append(Pattern.quote(part));
+            }
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE);
+    }
+}
@@ -0,0 +1,137 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+//a folder listing that runs on its own thread, so a request can give up waiting on it without stopping it
+public class ListingScan {
+    //a hung mount blocks its scan thread, but requests for the same folder join the scan instead of adding threads
+    private static final ExecutorService sExecutor = Executors.newCachedThreadPool();
+    //after this a scan is given up, the next request for the folder starts a new one
+    private static final long SCAN_TIMEOUT = 60000;
+    private static final ScheduledExecutorService sTimeouts = Executors.newSingleThreadScheduledExecutor();
+    private static final ConcurrentHashMap<String, ListingScan> sScans = new ConcurrentHashMap<>();
+
+    private final ListingEngine.ListingBuffer mBuffer = new ListingEngine.ListingBuffer();
+    private final ArrayList<Bundle> mPartial = new ArrayList<>(); //filled instead of mBuffer without the engine
+    private final CompletableFuture<ArrayList<Bundle>> mResult = new CompletableFuture<>();
+    private final long mServerId;
+    private volatile RootProcess mProcess; //the one running for this scan
+
+    private ListingScan(long serverId) {
+        mServerId = serverId;
+    }
+
+    static ListingScan completed(ArrayList<Bundle> fileList) {
+        ListingScan scan = new ListingScan(-1);
+        scan.mResult.complete(fileList);
+        return scan;
+    }
+
+    static ListingScan start(String filePath, long serverId) {
+        String key = serverId + ":" + filePath;
+        ListingScan[] started = new ListingScan[1];
+        ListingScan scan = sScans.computeIfAbsent(key, k -> started[0] = new ListingScan(serverId));
+        if (started[0] == scan) {
+            sExecutor.execute(() -> scan.run(key, filePath));
+            ScheduledFuture<?> timeout = sTimeouts.schedule(() -> {
+                if (!scan.mResult.completeExceptionally(new TimeoutException(filePath))) return;
+                sScans.remove(key, scan);
+                RootProcess process = scan.mProcess;
+                if (process != null) process.destroy();
+                Metrics.add("listing.scanTimeouts", 1);
+            }, SCAN_TIMEOUT, TimeUnit.MILLISECONDS);
+            scan.mResult.whenComplete((fileList, t) -> timeout.cancel(false));
+        }
+        return scan;
+    }
+
+    private void run(String key, String filePath) {
+        try {
+            //taken before listing, so anything that changes meanwhile makes the next revalidation rescan
+            String fingerprint = getFingerprint(filePath);
+            if (mResult.isDone()) return; //timed out meanwhile
+            ArrayList<Bundle> fileList;
+            if (ListingEngine.list(filePath, CachedFileList.getEntryCount(filePath), mBuffer, this::onStarted)) {
+                fileList = FileManager.getFileList(mBuffer, mServerId);
+            } else if (!mResult.isDone()) {
+                fileList = FileManager.getFileListWithoutEngine(filePath, mServerId, mPartial);
+            } else {
+                return; //timed out, the old way would hang the main shell on the same mount
+            }
+            mResult.complete(CachedFileList.saveFileList(filePath, fileList, fingerprint));
+        } catch (Throwable t) {
+            mResult.completeExceptionally(t);
+        } finally {
+            sScans.remove(key, this);
+        }
+    }
+
+    //a root process of its own like the listing, so a hung mount never holds up the main shell, null if unknown
+    private String getFingerprint(String filePath) throws InterruptedException {
+        RootProcess process;
+        try {
+            process = RootProcess.start(FileManager.getFingerprintCommand(Collections.singletonList(filePath)), false, true);
+        } catch (IOException e) {
+            Trace.e("listingScan", filePath, e);
+            return null;
+        }
+        onStarted(process);
+        ArrayList<String> lines = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) lines.add(line);
+        } catch (IOException e) {
+            return null; //killed on timeout
+        } finally {
+            process.waitFor();
+        }
+        return FileManager.parseFingerprints(lines).get(filePath);
+    }
+
+    private void onStarted(RootProcess process) {
+        mProcess = process;
+        if (mResult.isDone()) process.destroy(); //timed out while it was started
+    }
+
+    //the complete listing, or null if it takes longer than deadline ms
+    public ArrayList<Bundle> await(long deadline) {
+        try {
+            return mResult.get(deadline, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            Metrics.add("listing.deadlineMisses", 1);
+            return null;
+        } catch (InterruptedException | ExecutionException e) {
+            Trace.e("listingScan", "await", e);
+            return new ArrayList<>();
+        }
+    }
+
+    //entries scanned so far
+    public ArrayList<Bundle> getPartial() {
+        synchronized (mPartial) {
+            if (!mPartial.isEmpty()) return new ArrayList<>(mPartial);
+        }
+        return FileManager.getFileList(mBuffer, mServerId);
+    }
+
+    //called once with the complete listing, or null if the scan failed or timed out
+    public void whenDone(java.util.function.Consumer<ArrayList<Bundle>> consumer) {
+        mResult.whenComplete((fileList, t) -> consumer.accept(fileList));
+    }
+}
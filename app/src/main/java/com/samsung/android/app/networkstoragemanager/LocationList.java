@@ -96,7 +96,7 @@ public class LocationList {
         bStorage.putString("sharedFolder", "sdcard");
         defaultList.add(new Bundle(bStorage));
 
-        String sdcard = FileManager.getSDCardPath();
+        String sdcard = StorageVolumes.getSDCardName();
         if (sdcard != null) {
             if (serverIds) bStorage.putLong("serverId", 5);
             bStorage.putString("serverAddr", "#\\storage\\" + sdcard);
@@ -5,8 +5,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.os.IBinder;
 import android.os.ParcelFileDescriptor;
-import android.os.RemoteException;
-import android.util.Log;
+import android.os.SystemClock;
 
 import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
 import com.samsung.android.app.networkstoragemanager.libsupport.IRequestInterface;
@@ -14,79 +13,103 @@ import com.samsung.android.app.networkstoragemanager.libsupport.IResultCallback;
 import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
 import com.topjohnwu.superuser.Shell;
 
-import java.lang.reflect.Field;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 public class MainService extends Service implements RequestCode {
 
+    private static final long LISTING_DEADLINE = 2000; //ms a listing may take before it is answered partially
+
     private ArrayList<Bundle> storageLocations = new ArrayList<>();
-    private IResultCallback mCallback;
-    private IProgressCallback mProgressCallback;
-    private Map<Long, RequestInfo> mRequestInfoMap = new HashMap();
+    private final ResultDispatcher mDispatcher = new ResultDispatcher(); //the client's callbacks, never blocks on the client
+    private final RequestRegistry mRequests = new RequestRegistry();
 
     private final IRequestInterface.Stub mBinder = new IRequestInterface.Stub() {
 
         public void asyncRequest(long serverId, String type, int reqCode, Bundle extras) {
-            (new Thread(() -> syncRequest(serverId, type, reqCode, extras))).start();
+            (new Thread(() -> startRequest(serverId, type, reqCode, extras, null, mDispatcher))).start();
         }
 
         public boolean cancel(long serverId) {
-            RequestInfo requestInfo = mRequestInfoMap.get(serverId);
-            if (requestInfo != null) {
-                requestInfo.mCanceled.set(true);
-                return true;
-            } else {
-                return false;
-            }
+            return mRequests.cancelServer(serverId);
         }
 
         public boolean registerProgressCallback(IProgressCallback var1) {
-            MainService.this.mProgressCallback = var1;
+            mDispatcher.setProgressCallback(var1);
             return true;
         }
 
         public boolean registerResultCallback(IResultCallback var1) {
-            MainService.this.mCallback = var1;
+            mDispatcher.setResultCallback(var1);
             return true;
         }
 
         public void retryRequest(long serverId) {
-            RequestInfo requestInfo = mRequestInfoMap.get(serverId);
+            RequestInfo requestInfo = mRequests.takeFailedCopy(serverId);
             if (requestInfo != null) {
-                asyncRequest(requestInfo.mServerId, requestInfo.mType, requestInfo.mReqCode, requestInfo.mExtras);
+                //a copy continues from where the failed attempt stopped
+                (new Thread(() -> startRequest(requestInfo.mServerId, requestInfo.mType, requestInfo.mReqCode, requestInfo.mExtras, requestInfo.mCheckpoint, requestInfo.mDispatcher))).start();
             }
         }
 
         public Bundle syncRequest(long serverId, String type, int reqCode, Bundle extras) {
-            RequestInfo requestInfo = new RequestInfo(serverId, type, reqCode, extras);
-            mRequestInfoMap.put(serverId, requestInfo);
-            Bundle result = new Bundle();
-            handleRequest(requestInfo, result);
-            return result;
+            return startRequest(serverId, type, reqCode, extras, null, mDispatcher);
         }
 
         public boolean unregisterProgressCallback(IProgressCallback var1) {
-            MainService.this.mProgressCallback = null;
+            mDispatcher.setProgressCallback(null);
             return true;
         }
 
         public boolean unregisterResultCallback(IResultCallback var1) {
-            MainService.this.mCallback = null;
+            mDispatcher.setResultCallback(null);
             return true;
         }
     };
 
+    //results and progress go to dispatcher, LoadHarnessTest passes one of its own
+    void asyncRequest(long serverId, String type, int reqCode, Bundle extras, ResultDispatcher dispatcher) {
+        (new Thread(() -> startRequest(serverId, type, reqCode, extras, null, dispatcher))).start();
+    }
+
+    private Bundle startRequest(long serverId, String type, int reqCode, Bundle extras, CopyCheckpoint checkpoint, ResultDispatcher dispatcher) {
+        if (checkpoint == null && (reqCode == INTERNAL_COPY || reqCode == INTERNAL_MOVE)) checkpoint = new CopyCheckpoint();
+        RequestInfo requestInfo = new RequestInfo(mRequests.nextId(), serverId, type, reqCode, extras, checkpoint, dispatcher);
+        mRequests.add(requestInfo);
+        Bundle result = new Bundle();
+        if (IoScheduler.isBulk(reqCode)) {
+            IoScheduler.beginBulk(extras != null ? extras.getLong("maxBytesPerSecond", 0) : 0);
+            try {
+                handleRequest(requestInfo, result);
+            } finally {
+                IoScheduler.endBulk();
+            }
+        } else if (IoScheduler.isInteractive(reqCode)) {
+            long startTime = IoScheduler.beginInteractive();
+            try {
+                handleRequest(requestInfo, result);
+            } finally {
+                IoScheduler.endInteractive(startTime);
+            }
+        } else {
+            handleRequest(requestInfo, result);
+        }
+        return result;
+    }
+
     private void handleRequest(RequestInfo requestInfo, Bundle result) {
         result.putBoolean("isSuccess", true);
         result.putBoolean("isValidRequest", true);
 
-        Log.e("handleRequest", requestInfo.mReqCode + " " + requestInfo.mType);
+        Trace.d("handleRequest", requestInfo.mType, requestInfo.mReqCode);
         Bundle extras = requestInfo.mExtras;
-        for (String s : extras.keySet()) Log.i(s, String.valueOf(extras.get(s)));
+        if (Trace.isEnabled(Trace.VERBOSE)) {
+            for (String s : extras.keySet()) Trace.v("extras", s, String.valueOf(extras.get(s)));
+        }
 
+        ListingScan listingScan = null;
         switch (requestInfo.mReqCode) {
             case CONNECT:
                 //0
@@ -112,6 +135,7 @@ public class MainService extends Service implements RequestCode {
                 } else {
                     result.putBoolean("result", false); //only allow smb
                 }
+                FileIndex.updateLocations(storageLocations);
                 break;
             case UPDATE_SERVER:
                 //4
@@ -123,6 +147,7 @@ public class MainService extends Service implements RequestCode {
                         break;
                     }
                 }
+                FileIndex.updateLocations(storageLocations);
                 break;
             case DELETE_SERVER:
                 //6
@@ -134,6 +159,7 @@ public class MainService extends Service implements RequestCode {
                         break;
                     }
                 }
+                FileIndex.updateLocations(storageLocations);
                 break;
             case FIND_SERVER:
                 //7 (when opening smb scan dialog)
@@ -145,12 +171,22 @@ public class MainService extends Service implements RequestCode {
                 //result.putParcelableArrayList("sharedFolderList", FileManager.getFileList("/", extras.getLong("serverId")));
                 result.putParcelableArrayList("sharedFolderList", FileManager.getSharedFolderRootDir(extras.getLong("serverId")));
                 result.putBoolean("result", true);
+                StartupWarmup.onListing();
                 break;
             case GET_FILE_LIST:
                 //9
                 //result.putParcelableArrayList("fileList", FileManager.getFileList(extras.getString("filePath"), extras.getLong("serverId")));
-                result.putParcelableArrayList("fileList", FileManager.getFileListWithCache(extras.getString("filePath"), extras.getLong("serverId")));
+                ListingScan scan = FileManager.getFileListWithDeadline(extras.getString("filePath"), extras.getLong("serverId"));
+                ArrayList<Bundle> fileList = scan.await(extras.getLong("deadlineMs", LISTING_DEADLINE));
+                if (fileList == null) {
+                    //the folder is still being read, answer with what is there and send the rest when the scan ends
+                    fileList = scan.getPartial();
+                    listingScan = scan;
+                }
+                putFileList(extras, fileList, result);
+                result.putBoolean("isPartial", listingScan != null);
                 result.putBoolean("result", true);
+                StartupWarmup.onListing();
                 break;
             case GET_FILE_OBJECT:
                 //10
@@ -159,17 +195,7 @@ public class MainService extends Service implements RequestCode {
                 break;
             case GET_STRING_MAP:
                 //11
-                Field[] fields = R.string.class.getDeclaredFields();
-                Bundle bFiled = new Bundle();
-                for (Field field : fields) {
-                    try {
-                        bFiled.putString(field.getName(), getResources().getString(field.getInt(null)));
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        bFiled.putString(field.getName(), "");
-                    }
-                }
-                result.putBundle("result", bFiled);
+                result.putBundle("result", StringMap.get(this));
                 break;
             case GET_RESOURCE:
                 //12
@@ -206,12 +232,18 @@ public class MainService extends Service implements RequestCode {
                 break;
             case UPLOAD:
                 //123 (copy)
-                result.putBoolean("isSuccess", FileManager.copy((ParcelFileDescriptor) extras.getParcelable("fileDescriptor"), extras.getString("dstFolderPath"), extras.getString("dstFileName"), mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode));
+                ParcelFileDescriptor fileDescriptor = extras.getParcelable("fileDescriptor");
+                CopyPlan uploadPlan = CopyPlan.forSize(fileDescriptor != null ? fileDescriptor.getStatSize() : -1);
+                if (!uploadPlan.fits(extras.getString("dstFolderPath"), 0, result)) {
+                    result.putBoolean("isSuccess", false);
+                } else {
+                    result.putBoolean("isSuccess", FileManager.copy(fileDescriptor, extras.getString("dstFolderPath"), extras.getString("dstFileName"), requestInfo.mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode, uploadPlan));
+                }
                 result.putBoolean("result", true);
                 break;
             case GET_FILE_DESCRIPTOR:
                 //124 (click, copy, move)
-                result.putParcelable("fileDescriptor", FileManager.getFileDescriptor(extras.getString("sourcePath")));
+                result.putParcelable("fileDescriptor", FileManager.getFileDescriptor(extras.getString("sourcePath"), extras.getLong("offset"), extras.getLong("length", -1)));
                 result.putBoolean("result", true);
                 break;
             case DELETE:
@@ -221,12 +253,18 @@ public class MainService extends Service implements RequestCode {
                 break;
             case INTERNAL_COPY:
                 //126
-                result.putBoolean("isSuccess", FileManager.copy(extras.getString("sourcePath"), extras.getString("dstFolderPath"), extras.getString("dstFileName"), mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode, 0).isSuccess);
+                CopyPlan copyPlan = preflight(requestInfo, result);
+                CopyVerifier copyVerifier = extras.getBoolean("verify") ? new CopyVerifier() : null;
+                boolean isCopied = copyPlan != null && FileManager.copy(extras.getString("sourcePath"), extras.getString("dstFolderPath"), extras.getString("dstFileName"), requestInfo.mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode, 0, requestInfo.mCheckpoint, copyPlan, copyVerifier, requestInfo.mCanceled).isSuccess;
+                result.putBoolean("isSuccess", isCopied && (copyVerifier == null || copyVerifier.finish(result)));
                 result.putBoolean("result", true);
                 break;
             case INTERNAL_MOVE:
                 //127
-                boolean isSuccess = FileManager.copy(extras.getString("sourcePath"), extras.getString("dstFolderPath"), extras.getString("dstFileName"), mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode, 0).isSuccess;
+                CopyPlan movePlan = preflight(requestInfo, result);
+                CopyVerifier moveVerifier = extras.getBoolean("verify") ? new CopyVerifier() : null;
+                boolean isSuccess = movePlan != null && FileManager.copy(extras.getString("sourcePath"), extras.getString("dstFolderPath"), extras.getString("dstFileName"), requestInfo.mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode, 0, requestInfo.mCheckpoint, movePlan, moveVerifier, requestInfo.mCanceled).isSuccess;
+                isSuccess = isSuccess && (moveVerifier == null || moveVerifier.finish(result)); //the source stays unless the copy checks out
                 result.putBoolean("isSuccess", isSuccess && FileManager.deleteFile(extras.getString("sourcePath")));
                 result.putBoolean("result", true);
                 break;
@@ -240,18 +278,91 @@ public class MainService extends Service implements RequestCode {
                 //130
                 result.putBoolean("result", FileManager.exists(extras.getString("sourcePath")));
                 break;
+            case GET_FOLDER_SIZE:
+                //200
+                result.putLong("fileSize", FolderSizes.getFolderSize(extras.getString("filePath")));
+                result.putBoolean("result", true);
+                break;
+            case SEARCH:
+                //201
+                result.putParcelableArrayList("fileList", FileIndex.search(extras.getString("query"), extras.getString("filePath"), extras.getInt("maxCount", 500), extras.getLong("serverId")));
+                result.putBoolean("result", FileIndex.isReady());
+                break;
+            case BATCH_OPERATION:
+                //202 (DELETE, INTERNAL_COPY or INTERNAL_MOVE for a list of sourcePaths)
+                result.putBoolean("isSuccess", new BatchOperation(extras, requestInfo.mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode, requestInfo.mCanceled).run(result));
+                result.putBoolean("result", true);
+                break;
+            case CANCEL_OPERATION:
+                //204 (one operation, or all of them without operationId)
+                if (extras.containsKey("operationId")) {
+                    result.putBoolean("result", mRequests.cancelOperation(extras.getLong("operationId")));
+                } else {
+                    result.putBoolean("result", mRequests.cancelAll(requestInfo));
+                }
+                break;
+            case GET_OPERATIONS:
+                //205
+                result.putParcelableArrayList("operationList", mRequests.getRunning());
+                result.putBoolean("result", true);
+                break;
+            case GET_METRICS:
+                //203
+                result.putBundle("metrics", Metrics.toBundle());
+                result.putBoolean("result", true);
+                break;
+            case FIND_DUPLICATES:
+                //206 (groups are also sent one by one as progress while the rest is hashed)
+                result.putBoolean("isSuccess", new DuplicateFinder(extras, requestInfo.mProgressCallback, requestInfo.mServerId, requestInfo.mReqCode, requestInfo.mCanceled).run(result));
+                result.putBoolean("result", true);
+                break;
         }
 
-        mRequestInfoMap.remove(requestInfo.mServerId);
+        mRequests.finish(requestInfo, result.getBoolean("isSuccess"));
         if (requestInfo.mCanceled.get()) return;
 
-        try {
-            this.mCallback.onSuccess(requestInfo.mServerId, requestInfo.mReqCode, result);
-        } catch (RemoteException e) {
-            e.printStackTrace();
+        requestInfo.mDispatcher.onSuccess(requestInfo.mId, requestInfo.mServerId, requestInfo.mReqCode, result);
+        if (listingScan != null) listingScan.whenDone(fileList -> sendFollowUp(requestInfo, fileList));
+    }
+
+    private void putFileList(Bundle extras, ArrayList<Bundle> fileList, Bundle result) {
+        if (ListingOrder.isRequested(extras)) {
+            ListingOrder.apply(extras.getString("filePath"), fileList, extras, result);
+        } else {
+            result.putParcelableArrayList("fileList", fileList);
         }
     }
 
+    //second result for a listing that was answered partially, with the same request id, fileList is null if the scan failed
+    private void sendFollowUp(RequestInfo requestInfo, ArrayList<Bundle> fileList) {
+        if (requestInfo.mCanceled.get()) return;
+        Bundle result = new Bundle();
+        result.putBoolean("isSuccess", fileList != null);
+        result.putBoolean("isValidRequest", true);
+        if (fileList != null) {
+            putFileList(requestInfo.mExtras, fileList, result);
+        } else {
+            result.putString("errorReason", "listingFailed");
+        }
+        result.putBoolean("isPartial", false);
+        result.putBoolean("isFollowUp", true);
+        result.putBoolean("result", fileList != null);
+        Metrics.add("listing.followUps", 1);
+        requestInfo.mDispatcher.onSuccess(requestInfo.mId, requestInfo.mServerId, requestInfo.mReqCode, result);
+    }
+
+    //sizes the source in one walk and checks the destination mount before anything is written, null if it won't fit
+    private CopyPlan preflight(RequestInfo requestInfo, Bundle result) {
+        CopyPlan plan = CopyPlan.create(requestInfo.mExtras.getString("sourcePath"));
+        long alreadyCopied = requestInfo.mCheckpoint != null ? requestInfo.mCheckpoint.getCompletedBytes() : 0;
+        return plan.fits(requestInfo.mExtras.getString("dstFolderPath"), alreadyCopied, result) ? plan : null;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        Trace.dump(writer);
+    }
+
     public IBinder onBind(Intent var1) {
         return this.mBinder;
     }
@@ -260,23 +371,55 @@ public class MainService extends Service implements RequestCode {
         if (Shell.getCachedShell() == null) {
             Shell.setDefaultBuilder(Shell.Builder.create().setFlags(Shell.FLAG_MOUNT_MASTER));
         }
+        StorageVolumes.init(this);
+        ListingEngine.init(this);
+        RootProcess.init(this);
+        RootFiles.init(this);
         storageLocations = LocationList.loadList(this);
+        StartupWarmup.start(this, storageLocations);
+        FileIndex.init(this, storageLocations);
+    }
+
+    @Override
+    public void onTrimMemory(int level) {
+        super.onTrimMemory(level);
+        MemoryPressure.onTrimMemory(level);
+    }
+
+    @Override
+    public void onLowMemory() {
+        super.onLowMemory();
+        MemoryPressure.trim(MemoryPressure.TRIM_TO_FLOOR);
     }
 
     public void onDestroy() {
         super.onDestroy();
         LocationList.saveList(this, storageLocations);
+        StorageVolumes.release(this);
     }
 
     public static class RequestInfo {
         public final AtomicBoolean mCanceled;
+        public final CopyCheckpoint mCheckpoint;
+        public final ResultDispatcher mDispatcher;
         public final Bundle mExtras;
+        public final long mId;
+        public final IProgressCallback mProgressCallback; //queue of mDispatcher for this request
         public final int mReqCode;
         public final long mServerId;
+        public final long mStartTime;
         public final String mType;
+        public volatile long mEndTime;
+        public volatile int mState;
 
-        private RequestInfo(long serverId, String type, int requestCode, Bundle extras) {
+        RequestInfo(long id, long serverId, String type, int requestCode, Bundle extras, CopyCheckpoint checkpoint, ResultDispatcher dispatcher) {
             this.mCanceled = new AtomicBoolean(false);
+            this.mCheckpoint = checkpoint;
+            this.mDispatcher = dispatcher;
+            this.mProgressCallback = dispatcher.getQueue(id);
+            this.mId = id;
+            this.mStartTime = SystemClock.elapsedRealtime();
+            this.mState = RequestRegistry.STATE_RUNNING;
             this.mServerId = serverId;
             this.mType = type;
             this.mReqCode = requestCode;
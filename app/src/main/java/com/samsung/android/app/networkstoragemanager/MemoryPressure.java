@@ -0,0 +1,47 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.ComponentCallbacks2;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class MemoryPressure {
+    //each tier includes the ones below
+    public static final int TRIM_PREFETCHED = 1; //drop data nobody asked for yet
+    public static final int TRIM_COMPACT = 2; //drop derived data and unused capacity
+    public static final int TRIM_TO_FLOOR = 3; //evict everything but the hottest entries
+
+    private static final CopyOnWriteArrayList<Trimmable> sCaches = new CopyOnWriteArrayList<>();
+
+    public interface Trimmable {
+        void trim(int tier);
+    }
+
+    public static void register(Trimmable cache) {
+        sCaches.addIfAbsent(cache);
+    }
+
+    public static void onTrimMemory(int level) {
+        int tier;
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE) {
+            tier = TRIM_TO_FLOOR;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+            tier = TRIM_COMPACT;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
+            tier = TRIM_PREFETCHED;
+        } else if (level == ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN) {
+            return; //there is no ui to hide
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            tier = TRIM_TO_FLOOR;
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            tier = TRIM_COMPACT;
+        } else {
+            tier = TRIM_PREFETCHED;
+        }
+        trim(tier);
+    }
+
+    public static void trim(int tier) {
+        Trace.i("memoryPressure", "trim tier", tier);
+        for (Trimmable cache : sCaches) cache.trim(tier);
+    }
+}
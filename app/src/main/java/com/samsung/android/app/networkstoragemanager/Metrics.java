@@ -0,0 +1,34 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class Metrics {
+    private static final ConcurrentHashMap<String, AtomicLong> sValues = new ConcurrentHashMap<>();
+
+    public static void add(String key, long delta) {
+        get(key).addAndGet(delta);
+    }
+
+    public static void set(String key, long value) {
+        get(key).set(value);
+    }
+
+    private static AtomicLong get(String key) {
+        AtomicLong value = sValues.get(key);
+        if (value == null) {
+            sValues.putIfAbsent(key, new AtomicLong());
+            value = sValues.get(key);
+        }
+        return value;
+    }
+
+    public static Bundle toBundle() {
+        Bundle bundle = new Bundle();
+        for (Map.Entry<String, AtomicLong> entry : sValues.entrySet()) bundle.putLong(entry.getKey(), entry.getValue().get());
+        return bundle;
+    }
+}
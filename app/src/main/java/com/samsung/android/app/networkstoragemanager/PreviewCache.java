@@ -0,0 +1,118 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import com.topjohnwu.superuser.Shell;
+import com.topjohnwu.superuser.io.SuFileInputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+//contents of small files only root can read, so a preview opened again is served from memory instead of a root stream
+public class PreviewCache {
+    static final int MAX_FILE_SIZE = 256 * 1024;
+    private static final long MAX_BYTES = 4 * 1024 * 1024;
+    private static final long FLOOR_BYTES = 512 * 1024;
+
+    //in access order, the least recently opened file comes first
+    private static final LinkedHashMap<String, Entry> sEntries = new LinkedHashMap<>(32, 0.75f, true);
+    private static long sBytes;
+
+    static {
+        MemoryPressure.register(PreviewCache::trim);
+    }
+
+    //whole content of filePath, null if it is no regular file or too large to keep
+    public static byte[] get(String filePath) {
+        //one stat on the shell that is open anyway, the file is only read if it changed
+        List<String> out = Shell.cmd("stat -L -c '%s|%i %y|%F' " + FileManager.quote(filePath) + " 2>/dev/null").exec().getOut();
+        if (out.isEmpty()) return null;
+        String[] fields = out.get(0).split("\\|", 3);
+        if (fields.length < 3 || !fields[2].startsWith("regular")) return null;
+        long size;
+        try {
+            size = Long.parseLong(fields[0]);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (size > MAX_FILE_SIZE) return null;
+        String fingerprint = fields[0] + " " + fields[1];
+
+        synchronized (PreviewCache.class) {
+            Entry entry = sEntries.get(filePath);
+            if (entry != null && entry.fingerprint.equals(fingerprint)) {
+                Metrics.add("preview.hits", 1);
+                return entry.data;
+            }
+        }
+        Metrics.add("preview.misses", 1);
+        byte[] data = read(filePath);
+        if (data != null) put(filePath, new Entry(fingerprint, data));
+        return data;
+    }
+
+    //filePath was deleted, renamed or overwritten, for a folder everything below it is dropped too
+    //get would notice the change by itself, this frees the memory right away
+    public static synchronized void remove(String filePath) {
+        String prefix = filePath + "/";
+        Iterator<java.util.Map.Entry<String, Entry>> iterator = sEntries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            java.util.Map.Entry<String, Entry> entry = iterator.next();
+            if (!entry.getKey().equals(filePath) && !entry.getKey().startsWith(prefix)) continue;
+            sBytes -= entry.getValue().data.length;
+            iterator.remove();
+        }
+    }
+
+    public static synchronized void trim(int tier) {
+        if (tier >= MemoryPressure.TRIM_TO_FLOOR) {
+            evict(0);
+        } else if (tier >= MemoryPressure.TRIM_COMPACT) {
+            evict(FLOOR_BYTES);
+        }
+    }
+
+    private static synchronized void put(String filePath, Entry entry) {
+        Entry old = sEntries.put(filePath, entry);
+        if (old != null) sBytes -= old.data.length;
+        sBytes += entry.data.length;
+        evict(MAX_BYTES);
+    }
+
+    private static void evict(long maxBytes) {
+        Iterator<Entry> iterator = sEntries.values().iterator();
+        while (sBytes > maxBytes && iterator.hasNext()) {
+            sBytes -= iterator.next().data.length;
+            iterator.remove();
+        }
+        Metrics.set("preview.bytes", sBytes);
+    }
+
+    //the file may have grown since the stat, anything beyond MAX_FILE_SIZE is not kept
+    private static byte[] read(String filePath) {
+        try (InputStream in = SuFileInputStream.open(filePath)) {
+            byte[] buf = new byte[MAX_FILE_SIZE + 1];
+            int done = 0;
+            int len;
+            while (done < buf.length && (len = in.read(buf, done, buf.length - done)) > 0) done += len;
+            if (done > MAX_FILE_SIZE) return null;
+            byte[] data = new byte[done];
+            System.arraycopy(buf, 0, data, 0, done);
+            return data;
+        } catch (IOException e) {
+            Trace.e("previewCache", filePath, e);
+            return null;
+        }
+    }
+
+    private static class Entry {
+        final String fingerprint;
+        final byte[] data;
+
+        Entry(String fingerprint, byte[] data) {
+            this.fingerprint = fingerprint;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.samsung.android.app.networkstoragemanager.MainService.RequestInfo;
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+//every in-flight operation is tracked on its own, so several of them can run for the same serverId
+public class RequestRegistry implements RequestCode {
+    public static final int STATE_RUNNING = 0;
+    public static final int STATE_FINISHED = 1;
+    public static final int STATE_CANCELED = 2;
+
+    private final AtomicLong mNextId = new AtomicLong(1);
+    private final ConcurrentHashMap<Long, RequestInfo> mRunning = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, RequestInfo> mFailedCopies = new ConcurrentHashMap<>(); //serverId to its last failed copy or move
+
+    public long nextId() {
+        return mNextId.getAndIncrement();
+    }
+
+    public void add(RequestInfo requestInfo) {
+        mRunning.put(requestInfo.mId, requestInfo);
+    }
+
+    public void finish(RequestInfo requestInfo, boolean isSuccess) {
+        requestInfo.mEndTime = SystemClock.elapsedRealtime();
+        if (requestInfo.mState == STATE_RUNNING) requestInfo.mState = STATE_FINISHED;
+        mRunning.remove(requestInfo.mId);
+        //only a copy has a checkpoint to continue from, a canceled one was not meant to finish
+        boolean isCopy = requestInfo.mReqCode == INTERNAL_COPY || requestInfo.mReqCode == INTERNAL_MOVE;
+        if (isCopy && !isSuccess && !requestInfo.mCanceled.get()) mFailedCopies.put(requestInfo.mServerId, requestInfo);
+    }
+
+    public boolean cancel(RequestInfo requestInfo) {
+        requestInfo.mCanceled.set(true);
+        requestInfo.mState = STATE_CANCELED;
+        return true;
+    }
+
+    public boolean cancelOperation(long id) {
+        RequestInfo requestInfo = mRunning.get(id);
+        return requestInfo != null && cancel(requestInfo);
+    }
+
+    //the client only knows the serverId, so all of its operations are canceled
+    public boolean cancelServer(long serverId) {
+        boolean canceled = false;
+        for (RequestInfo requestInfo : mRunning.values()) {
+            if (requestInfo.mServerId == serverId) canceled |= cancel(requestInfo);
+        }
+        return canceled;
+    }
+
+    public boolean cancelAll(RequestInfo caller) {
+        boolean canceled = false;
+        for (RequestInfo requestInfo : mRunning.values()) {
+            if (requestInfo != caller) canceled |= cancel(requestInfo);
+        }
+        return canceled;
+    }
+
+    //the last failed copy or move of serverId for retryRequest, whatever ran for serverId since
+    //taken out, so it is retried once, a retry that fails again puts itself back
+    public RequestInfo takeFailedCopy(long serverId) {
+        return mFailedCopies.remove(serverId);
+    }
+
+    public ArrayList<Bundle> getRunning() {
+        ArrayList<Bundle> requestList = new ArrayList<>();
+        long now = SystemClock.elapsedRealtime();
+        for (RequestInfo requestInfo : mRunning.values()) {
+            Bundle bRequest = new Bundle();
+            bRequest.putLong("operationId", requestInfo.mId);
+            bRequest.putLong("serverId", requestInfo.mServerId);
+            bRequest.putInt("reqCode", requestInfo.mReqCode);
+            bRequest.putInt("state", requestInfo.mState);
+            bRequest.putLong("duration", now - requestInfo.mStartTime);
+            requestList.add(bRequest);
+        }
+        return requestList;
+    }
+}
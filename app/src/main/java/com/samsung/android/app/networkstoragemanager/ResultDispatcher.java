@@ -0,0 +1,217 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.Bundle;
+import android.os.DeadObjectException;
+import android.os.IBinder;
+import android.os.IInterface;
+import android.os.RemoteException;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.samsung.android.app.networkstoragemanager.libsupport.IResultCallback;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+//delivers results and progress to the client on a thread of its own, so a slow or dead client never holds up a request
+//events of one request keep their order, progress nobody has seen yet is replaced by newer progress of the same request
+public class ResultDispatcher {
+    //progress carrying one of these is an event rather than a state, it is never replaced
+    private static final String[] EVENT_KEYS = {"group"};
+
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "ResultDispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Object mLock = new Object();
+    private final ArrayDeque<Event> mQueue = new ArrayDeque<>();
+    //operation to its last queued event, if that is replaceable progress
+    //not by request id, that is the serverId and several operations of one location run at the same time
+    private final HashMap<Long, Event> mPendingProgress = new HashMap<>();
+    private IResultCallback mResultCallback;
+    private IProgressCallback mProgressCallback;
+    private IBinder.DeathRecipient mResultDeath;
+    private IBinder.DeathRecipient mProgressDeath;
+    private boolean mIsRunning;
+    private long mMaxLatency;
+
+    //handed to the workers of one operation in place of the client's progress callback
+    public IProgressCallback getQueue(long operation) {
+        return new IProgressCallback() {
+            @Override
+            public void onProgress(long requestId, int reqCode, Bundle progress) {
+                enqueue(new Event(operation, requestId, reqCode, new Bundle(progress), false)); //workers reuse their bundle
+            }
+
+            @Override
+            public IBinder asBinder() {
+                return null;
+            }
+        };
+    }
+
+    public void onSuccess(long operation, long requestId, int reqCode, Bundle result) {
+        enqueue(new Event(operation, requestId, reqCode, result, true));
+    }
+
+    public void setResultCallback(IResultCallback callback) {
+        synchronized (mLock) {
+            unlink(mResultCallback, mResultDeath);
+            mResultCallback = callback;
+            mResultDeath = link(callback, () -> {
+                synchronized (mLock) {
+                    if (mResultCallback == callback) mResultCallback = null;
+                }
+            });
+        }
+    }
+
+    public void setProgressCallback(IProgressCallback callback) {
+        synchronized (mLock) {
+            unlink(mProgressCallback, mProgressDeath);
+            mProgressCallback = callback;
+            mProgressDeath = link(callback, () -> {
+                synchronized (mLock) {
+                    if (mProgressCallback == callback) mProgressCallback = null;
+                }
+            });
+        }
+    }
+
+    private static IBinder.DeathRecipient link(IInterface callback, Runnable onDeath) {
+        if (callback == null || callback.asBinder() == null) return null;
+        IBinder.DeathRecipient recipient = () -> {
+            Metrics.add("dispatch.clientDeaths", 1);
+            onDeath.run();
+        };
+        try {
+            callback.asBinder().linkToDeath(recipient, 0);
+            return recipient;
+        } catch (RemoteException e) {
+            recipient.binderDied(); //dead already
+            return null;
+        }
+    }
+
+    private static void unlink(IInterface callback, IBinder.DeathRecipient recipient) {
+        if (callback != null && recipient != null && callback.asBinder() != null) callback.asBinder().unlinkToDeath(recipient, 0);
+    }
+
+    private void enqueue(Event event) {
+        synchronized (mLock) {
+            Event pending = mPendingProgress.remove(event.operation);
+            if (!event.isResult && pending != null) {
+                //still queued and nothing of the operation comes after it, so the newer state takes its place
+                pending.bundle = event.bundle;
+                if (!event.isEvent()) mPendingProgress.put(event.operation, pending);
+                Metrics.add("dispatch.coalesced", 1);
+                return;
+            }
+            mQueue.add(event);
+            if (!event.isResult && !event.isEvent()) mPendingProgress.put(event.operation, event);
+            if (mIsRunning) return;
+            mIsRunning = true;
+        }
+        mExecutor.execute(this::drain);
+    }
+
+    //runs while there is something to deliver, takes everything queued at once
+    private void drain() {
+        while (true) {
+            ArrayList<Event> batch;
+            IResultCallback resultCallback;
+            IProgressCallback progressCallback;
+            synchronized (mLock) {
+                if (mQueue.isEmpty()) {
+                    mIsRunning = false;
+                    return;
+                }
+                batch = new ArrayList<>(mQueue);
+                mQueue.clear();
+                mPendingProgress.clear();
+                resultCallback = mResultCallback;
+                progressCallback = mProgressCallback;
+            }
+            Metrics.add("dispatch.batches", 1);
+            for (Event event : batch) {
+                try {
+                    if (event.isResult) {
+                        if (resultCallback == null) {
+                            Metrics.add("dispatch.dropped", 1);
+                            continue;
+                        }
+                        resultCallback.onSuccess(event.requestId, event.reqCode, event.bundle);
+                    } else {
+                        if (progressCallback == null) continue; //progress is optional for the client
+                        progressCallback.onProgress(event.requestId, event.reqCode, event.bundle);
+                    }
+                    onDelivered(event);
+                } catch (DeadObjectException e) {
+                    //the client is gone, what is left of the batch goes nowhere either
+                    Trace.e("dispatch", String.valueOf(event.requestId), e);
+                    Metrics.add("dispatch.deadClient", 1);
+                    if (event.isResult) {
+                        forget(resultCallback);
+                        resultCallback = null;
+                    } else {
+                        forget(progressCallback);
+                        progressCallback = null;
+                    }
+                } catch (RemoteException | RuntimeException e) {
+                    Trace.e("dispatch", String.valueOf(event.requestId), e);
+                }
+            }
+        }
+    }
+
+    private void onDelivered(Event event) {
+        long latency = (System.nanoTime() - event.queueTime) / 1000000;
+        Metrics.add(event.isResult ? "dispatch.results" : "dispatch.progress", 1);
+        Metrics.add("dispatch.latencyMs", latency);
+        synchronized (mLock) {
+            if (latency <= mMaxLatency) return;
+            mMaxLatency = latency;
+        }
+        Metrics.set("dispatch.maxLatencyMs", latency);
+    }
+
+    //forgets a callback that failed as dead, unless it has been replaced in the meantime
+    private void forget(IInterface callback) {
+        synchronized (mLock) {
+            if (mResultCallback == callback) {
+                unlink(mResultCallback, mResultDeath);
+                mResultCallback = null;
+            } else if (mProgressCallback == callback) {
+                unlink(mProgressCallback, mProgressDeath);
+                mProgressCallback = null;
+            }
+        }
+    }
+
+    private static class Event {
+        final long operation;
+        final long requestId;
+        final int reqCode;
+        final boolean isResult;
+        final long queueTime = System.nanoTime();
+        Bundle bundle;
+
+        Event(long operation, long requestId, int reqCode, Bundle bundle, boolean isResult) {
+            this.operation = operation;
+            this.requestId = requestId;
+            this.reqCode = reqCode;
+            this.bundle = bundle;
+            this.isResult = isResult;
+        }
+
+        boolean isEvent() {
+            for (String key : EVENT_KEYS) {
+                if (bundle.containsKey(key)) return true;
+            }
+            return false;
+        }
+    }
+}
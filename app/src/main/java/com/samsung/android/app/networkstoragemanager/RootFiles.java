@@ -0,0 +1,116 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+
+import com.topjohnwu.superuser.io.SuFileInputStream;
+import com.topjohnwu.superuser.ipc.RootService;
+import com.topjohnwu.superuser.nio.FileSystemManager;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//files only root can read, through the file system of a libsu root service: one root process for the whole service,
+//started by the mount-master shell, with channels that seek instead of a stream that has to be read up to the offset
+public class RootFiles {
+    private static final long BIND_TIMEOUT = 5000; //ms the first read waits for the root service before it falls back to a stream
+
+    private static final CountDownLatch sBound = new CountDownLatch(1);
+    private static final AtomicBoolean sHasRebound = new AtomicBoolean();
+    private static volatile FileSystemManager sFileSystem;
+    private static volatile boolean sHasFailed; //waited in vain or lost once, later reads fall back at once
+    private static Context sContext;
+
+    //on the main thread, like every RootService.bind
+    public static void init(Context context) {
+        sContext = context.getApplicationContext();
+        bind();
+    }
+
+    private static void bind() {
+        RootService.bind(new Intent(sContext, FileService.class), new ServiceConnection() {
+            @Override
+            public void onServiceConnected(ComponentName name, IBinder service) {
+                sFileSystem = FileSystemManager.getRemote(service);
+                sBound.countDown();
+            }
+
+            @Override
+            public void onServiceDisconnected(ComponentName name) {
+                sFileSystem = null;
+                onFailure();
+            }
+
+            @Override
+            public void onBindingDied(ComponentName name) {
+                sFileSystem = null;
+                onFailure();
+            }
+
+            @Override
+            public void onNullBinding(ComponentName name) {
+                onFailure();
+            }
+        });
+    }
+
+    //nobody waits for the service anymore, it is bound once more in the background and used if that works
+    private static void onFailure() {
+        sHasFailed = true;
+        sBound.countDown();
+        Metrics.add("rootFiles.bindFailures", 1);
+        if (sHasRebound.compareAndSet(false, true)) new Handler(Looper.getMainLooper()).post(RootFiles::bind);
+    }
+
+    //length bytes from offset, length -1 reads to the end
+    public static InputStream open(String path, long offset, long length) throws IOException {
+        FileSystemManager fileSystem = getFileSystem();
+        InputStream in;
+        if (fileSystem != null) {
+            FileChannel channel = fileSystem.openChannel(path, FileSystemManager.MODE_READ_ONLY);
+            channel.position(offset);
+            in = Channels.newInputStream(channel);
+            Metrics.add("rootFiles.channels", 1);
+        } else {
+            //without the service the shell stream has to be read up to the offset
+            in = SuFileInputStream.open(path);
+            long left = offset;
+            while (left > 0) {
+                long skipped = in.skip(left);
+                if (skipped > 0) left -= skipped;
+                else if (in.read() >= 0) left--;
+                else break;
+            }
+            Metrics.add("rootFiles.streams", 1);
+        }
+        return length < 0 ? in : FileManager.limit(in, length);
+    }
+
+    private static FileSystemManager getFileSystem() {
+        FileSystemManager fileSystem = sFileSystem;
+        if (fileSystem != null || sHasFailed) return fileSystem;
+        try {
+            if (!sBound.await(BIND_TIMEOUT, TimeUnit.MILLISECONDS)) onFailure();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return sFileSystem;
+    }
+
+    public static class FileService extends RootService {
+        @Override
+        public IBinder onBind(Intent intent) {
+            return FileSystemManager.getService();
+        }
+    }
+}
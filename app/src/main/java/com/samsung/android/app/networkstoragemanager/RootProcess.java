@@ -0,0 +1,163 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//a root process started in the background of the main shell, so it sees the same mounts as every Shell.cmd
+//and needs no su session of its own, its stdin and stdout are fifos in the cache dir, stderr is dropped
+public class RootProcess {
+    private static final AtomicInteger sSequence = new AtomicInteger();
+    private static volatile File sWorkDir;
+
+    private final File mIn;
+    private final File mOut;
+    private final File mStatus;
+    private final String mPid;
+    private InputStream mInputStream;
+    private OutputStream mOutputStream;
+
+    public static void init(Context context) {
+        sWorkDir = context.getCacheDir();
+    }
+
+    private RootProcess(File in, File out, File status, String pid) {
+        mIn = in;
+        mOut = out;
+        mStatus = status;
+        mPid = pid;
+    }
+
+    //returns once the process has opened both fifos, hasInput and hasOutput false give it /dev/null instead
+    public static RootProcess start(String command, boolean hasInput, boolean hasOutput) throws IOException {
+        File workDir = sWorkDir;
+        if (workDir == null) throw new IOException("not initialized");
+        String name = "process-" + Os.getpid() + "-" + sSequence.incrementAndGet();
+        File in = new File(workDir, name + ".in");
+        File out = new File(workDir, name + ".out");
+        File status = new File(workDir, name + ".status");
+        try {
+            //left by a crashed run whose pid came back
+            in.delete();
+            out.delete();
+            status.delete();
+            if (hasInput) Os.mkfifo(in.getPath(), 0600);
+            if (hasOutput) Os.mkfifo(out.getPath(), 0600);
+            //made here, so root only writes into a file the app owns and can read
+            if (!status.createNewFile()) throw new IOException("could not create " + status);
+        } catch (ErrnoException e) {
+            throw new IOException(e);
+        }
+
+        //the shell opens stdout before stdin, so the fifos are opened here in the same order
+        String script = "{ sh -c " + FileManager.quote(command)
+                + " > " + (hasOutput ? FileManager.quote(out.getPath()) : "/dev/null")
+                + " < " + (hasInput ? FileManager.quote(in.getPath()) : "/dev/null")
+                + " 2>/dev/null; echo $? > " + FileManager.quote(status.getPath()) + "; } >/dev/null 2>&1 </dev/null & echo $!";
+        List<String> pid = Shell.cmd(script).exec().getOut();
+        RootProcess process = new RootProcess(in, out, status, pid.isEmpty() ? null : pid.get(0).trim());
+        if (process.mPid == null) {
+            process.delete();
+            throw new IOException("could not start " + command);
+        }
+        Thread watchdog = new Thread(process::unblock, "RootProcess");
+        watchdog.setDaemon(true);
+        watchdog.start();
+        try {
+            if (hasOutput) process.mInputStream = new FileInputStream(out);
+            if (hasInput) process.mOutputStream = new FileOutputStream(in);
+        } finally {
+            watchdog.interrupt();
+        }
+        return process;
+    }
+
+    //a process that ended without opening a fifo leaves this side blocked in open, the other end is opened for it
+    private void unblock() {
+        while (!Thread.currentThread().isInterrupted()) {
+            SystemClock.sleep(10);
+            if (mStatus.length() == 0) continue;
+            open(mOut, OsConstants.O_WRONLY | OsConstants.O_NONBLOCK);
+            open(mIn, OsConstants.O_RDONLY | OsConstants.O_NONBLOCK);
+        }
+    }
+
+    private static void open(File fifo, int flags) {
+        try {
+            Os.close(Os.open(fifo.getPath(), flags, 0));
+        } catch (ErrnoException ignored) {
+            //nobody waits on this end
+        }
+    }
+
+    //stdout of the process, null without output
+    public InputStream getInputStream() {
+        return mInputStream;
+    }
+
+    //stdin of the process, null without input
+    public OutputStream getOutputStream() {
+        return mOutputStream;
+    }
+
+    //exit code, or -1 if it could not be read
+    public int waitFor() throws InterruptedException {
+        try {
+            while (true) {
+                //echo may still be writing it
+                String status = new String(Files.readAllBytes(mStatus.toPath()), StandardCharsets.UTF_8).trim();
+                if (!status.isEmpty()) return Integer.parseInt(status);
+                if (Thread.interrupted()) throw new InterruptedException();
+                SystemClock.sleep(10);
+            }
+        } catch (IOException | NumberFormatException e) {
+            Trace.e("rootProcess", mStatus.getPath(), e);
+            return -1;
+        } finally {
+            close();
+            delete();
+        }
+    }
+
+    //kills the process with everything it started
+    public void destroy() {
+        Shell.cmd("k() { for c in $(pgrep -P $1); do k $c; done; kill $1; }; k " + mPid + " 2>/dev/null").exec();
+        close();
+        delete();
+    }
+
+    private void close() {
+        close(mInputStream);
+        close(mOutputStream);
+    }
+
+    private static void close(Closeable stream) {
+        try {
+            if (stream != null) stream.close();
+        } catch (IOException ignored) {
+            //a process that died first
+        }
+    }
+
+    private void delete() {
+        mIn.delete();
+        mOut.delete();
+        mStatus.delete();
+    }
+}
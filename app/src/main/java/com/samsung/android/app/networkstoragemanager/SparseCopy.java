@@ -0,0 +1,324 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.RemoteException;
+import android.system.ErrnoException;
+import android.system.Os;
+import android.system.OsConstants;
+
+import com.topjohnwu.superuser.Shell;
+import com.topjohnwu.superuser.io.SuFileInputStream;
+import com.topjohnwu.superuser.io.SuFileOutputStream;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+
+//copies zero blocks as holes, so sparse images and databases stay sparse on the destination
+public class SparseCopy {
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BUFFER_SIZE = 16 * BLOCK_SIZE;
+    private static final long ROOT_HOLE_SIZE = 1024 * 1024; //every hole costs shell calls when writing as root
+    private static final byte[] ZEROS = new byte[BUFFER_SIZE];
+    private static final int SEEK_DATA = 3; //linux values, OsConstants doesn't have them
+    private static final int NO_DATA = -1;
+    private static final int UNSUPPORTED = -2;
+
+    public interface Progress {
+        void onProgress(long handledSize) throws RemoteException;
+    }
+
+    public static class Stats {
+        public long size;
+        public long bytesRead;
+        public long bytesWritten;
+    }
+
+    public static Stats copy(String sourcePath, String dstPath, CopyCheckpoint checkpoint, Progress progress) throws IOException, RemoteException {
+        return copy(sourcePath, dstPath, checkpoint, 0, null, progress);
+    }
+
+    //preallocate is the size to reserve on the destination up front, 0 for sparse or unknown sources
+    //digest may be null, otherwise it is updated with every byte of the source, holes included
+    public static Stats copy(String sourcePath, String dstPath, CopyCheckpoint checkpoint, long preallocate, MessageDigest digest, Progress progress) throws IOException, RemoteException {
+        File source = new File(sourcePath);
+        InputStream in = null;
+        if (source.canRead()) {
+            try {
+                in = new FileInputStream(source);
+            } catch (IOException ignored) {
+            }
+        }
+        if (in == null) in = SuFileInputStream.open(sourcePath);
+        return copy(in, dstPath, checkpoint != null ? checkpoint.getResumeOffset(dstPath) : 0, checkpoint, preallocate, digest, progress);
+    }
+
+    public static Stats copy(InputStream in, String dstPath, long offset, CopyCheckpoint checkpoint, long preallocate, Progress progress) throws IOException, RemoteException {
+        return copy(in, dstPath, offset, checkpoint, preallocate, null, progress);
+    }
+
+    //a seekable FileInputStream skips holes without reading them, anything else is scanned for zero blocks
+    public static Stats copy(InputStream in, String dstPath, long offset, CopyCheckpoint checkpoint, long preallocate, MessageDigest digest, Progress progress) throws IOException, RemoteException {
+        Stats stats = new Stats();
+        FileInputStream seekable = in instanceof FileInputStream ? (FileInputStream) in : null;
+        Sink sink = openSink(dstPath, offset, preallocate);
+        try {
+            byte[] buf = new byte[BUFFER_SIZE];
+            long position = sink.getStart();
+            if (checkpoint != null) checkpoint.onStarted(dstPath, position);
+            if (position > 0) skip(in, digest == null ? seekable : null, position, digest);
+            boolean inZeros = true;
+            while (true) {
+                if (seekable != null && inZeros) {
+                    long data = nextData(seekable, position);
+                    if (data == UNSUPPORTED) {
+                        seekable = null;
+                    } else if (data == NO_DATA) {
+                        long size = seekable.getChannel().size();
+                        sink.hole(size - position);
+                        updateZeros(digest, size - position);
+                        position = size;
+                        break;
+                    } else if (data > position) {
+                        sink.hole(data - position);
+                        updateZeros(digest, data - position);
+                        position = data;
+                        if (checkpoint != null) checkpoint.onSkipped(position);
+                    }
+                }
+                int len = in.read(buf);
+                if (len <= 0) break;
+                IoScheduler.throttle(len);
+                stats.bytesRead += len;
+                if (digest != null) digest.update(buf, 0, len);
+                for (int off = 0; off < len; off += BLOCK_SIZE) {
+                    int n = Math.min(BLOCK_SIZE, len - off);
+                    inZeros = isZero(buf, off, n);
+                    if (inZeros) {
+                        sink.hole(n);
+                    } else {
+                        sink.write(buf, off, n);
+                        stats.bytesWritten += n;
+                    }
+                }
+                position += len;
+                if (checkpoint != null) checkpoint.onWritten(buf, 0, len, position);
+                progress.onProgress(position);
+            }
+            stats.size = position;
+            stats.bytesWritten += sink.finish(position);
+        } finally {
+            in.close();
+            sink.close();
+        }
+        Metrics.add("copy.bytesRead", stats.bytesRead);
+        Metrics.add("copy.bytesWritten", stats.bytesWritten);
+        return stats;
+    }
+
+    //with a digest the kept part of a resumed copy is read, as the checksum covers the whole file
+    private static void skip(InputStream in, FileInputStream seekable, long offset, MessageDigest digest) throws IOException {
+        if (digest != null) {
+            byte[] buf = new byte[BUFFER_SIZE];
+            for (long left = offset; left > 0; ) {
+                int len = in.read(buf, 0, (int) Math.min(buf.length, left));
+                if (len < 0) throw new IOException("source is shorter than the resume offset");
+                digest.update(buf, 0, len);
+                left -= len;
+            }
+            return;
+        }
+        if (seekable != null) {
+            try {
+                seekable.getChannel().position(offset);
+                return;
+            } catch (IOException ignored) {
+                //not seekable after all, a pipe for example
+            }
+        }
+        for (long left = offset; left > 0; ) {
+            long skipped = in.skip(left);
+            if (skipped <= 0) {
+                if (in.read() < 0) throw new IOException("source is shorter than the resume offset");
+                skipped = 1;
+            }
+            left -= skipped;
+        }
+    }
+
+    private static void updateZeros(MessageDigest digest, long len) {
+        if (digest == null) return;
+        for (long left = len; left > 0; left -= ZEROS.length) digest.update(ZEROS, 0, (int) Math.min(left, ZEROS.length));
+    }
+
+    private static long nextData(FileInputStream in, long position) {
+        try {
+            //moves the file offset of the stream to the next data
+            return Os.lseek(in.getFD(), position, SEEK_DATA);
+        } catch (ErrnoException e) {
+            return e.errno == OsConstants.ENXIO ? NO_DATA : UNSUPPORTED;
+        } catch (IOException e) {
+            return UNSUPPORTED;
+        }
+    }
+
+    private static boolean isZero(byte[] buf, int off, int len) {
+        for (int i = off, end = off + len; i < end; i++) {
+            if (buf[i] != 0) return false;
+        }
+        return true;
+    }
+
+    private static Sink openSink(String dstPath, long offset, long preallocate) throws IOException {
+        File dst = new File(dstPath);
+        File parent = dst.getParentFile();
+        if (parent != null && parent.canWrite() && (!dst.exists() || dst.canWrite())) {
+            try {
+                return new DirectSink(dst, offset, preallocate);
+            } catch (IOException ignored) {
+            }
+        }
+        return new RootSink(dstPath, offset);
+    }
+
+    private interface Sink {
+        //where writing continues, 0 unless a resume offset could be kept
+        long getStart();
+
+        void write(byte[] buf, int off, int len) throws IOException;
+
+        void hole(long len) throws IOException;
+
+        //returns the number of zeros that had to be written instead of holes
+        long finish(long size) throws IOException;
+
+        void close() throws IOException;
+    }
+
+    //seeks over holes, the file system fills them itself if it can't store them
+    private static class DirectSink implements Sink {
+        final RandomAccessFile mFile;
+        final long mStart;
+
+        DirectSink(File file, long offset, long preallocate) throws IOException {
+            mFile = new RandomAccessFile(file, "rw");
+            mStart = Math.min(offset, mFile.length());
+            mFile.setLength(mStart);
+            mFile.seek(mStart);
+            //one extent request instead of growing block by block, finish cuts the file to its real size
+            if (preallocate > mStart) {
+                try {
+                    Os.posix_fallocate(mFile.getFD(), mStart, preallocate - mStart);
+                    Metrics.add("copy.preallocatedBytes", preallocate - mStart);
+                } catch (ErrnoException e) {
+                    Metrics.add("copy.preallocateFailures", 1); //not supported by every file system, fuse for example
+                }
+            }
+        }
+
+        @Override
+        public long getStart() {
+            return mStart;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            mFile.write(buf, off, len);
+        }
+
+        @Override
+        public void hole(long len) throws IOException {
+            mFile.seek(mFile.getFilePointer() + len);
+        }
+
+        @Override
+        public long finish(long size) throws IOException {
+            mFile.setLength(size);
+            return 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            mFile.close();
+        }
+    }
+
+    //a stream can't seek, so large holes reopen it in append mode after extending the file with truncate
+    private static class RootSink implements Sink {
+        final String mPath;
+        OutputStream mOut;
+        long mPosition;
+        long mPendingHole;
+        long mZeros;
+
+        final long mStart;
+
+        RootSink(String path, long offset) throws IOException {
+            mPath = path;
+            if (offset > 0 && Shell.cmd("truncate -s " + offset + " " + FileManager.quote(path)).exec().isSuccess()) {
+                mOut = SuFileOutputStream.open(path, true);
+                mStart = offset;
+            } else {
+                mOut = SuFileOutputStream.open(path);
+                mStart = 0;
+            }
+            mPosition = mStart;
+        }
+
+        @Override
+        public long getStart() {
+            return mStart;
+        }
+
+        @Override
+        public void write(byte[] buf, int off, int len) throws IOException {
+            flushHole(true);
+            mOut.write(buf, off, len);
+            mPosition += len;
+        }
+
+        @Override
+        public void hole(long len) {
+            mPendingHole += len;
+        }
+
+        private void flushHole(boolean allowExtend) throws IOException {
+            if (mPendingHole == 0) return;
+            if (!allowExtend || mPendingHole < ROOT_HOLE_SIZE || !extend(mPosition + mPendingHole)) {
+                mZeros += mPendingHole;
+                for (long left = mPendingHole; left > 0; left -= ZEROS.length) {
+                    mOut.write(ZEROS, 0, (int) Math.min(left, ZEROS.length));
+                }
+            }
+            mPosition += mPendingHole;
+            mPendingHole = 0;
+        }
+
+        private boolean extend(long size) throws IOException {
+            mOut.close();
+            boolean isSuccess = Shell.cmd("truncate -s " + size + " " + FileManager.quote(mPath)).exec().isSuccess();
+            mOut = SuFileOutputStream.open(mPath, true);
+            return isSuccess;
+        }
+
+        @Override
+        public long finish(long size) throws IOException {
+            if (mPendingHole >= ROOT_HOLE_SIZE) {
+                mOut.close();
+                mOut = null;
+                if (Shell.cmd("truncate -s " + size + " " + FileManager.quote(mPath)).exec().isSuccess()) return mZeros;
+                mOut = SuFileOutputStream.open(mPath, true);
+            }
+            flushHole(false); //no support for holes, write them out
+            return mZeros;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (mOut != null) mOut.close();
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.SystemClock;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class StartupWarmup {
+    private static final AtomicBoolean sListed = new AtomicBoolean();
+    private static long sCreateTime;
+
+    //runs off the main thread: the root shell and the string map in parallel, the listings once the shell is up
+    public static void start(Context context, ArrayList<Bundle> locations) {
+        sCreateTime = SystemClock.elapsedRealtime();
+        ArrayList<Bundle> locationList = new ArrayList<>(locations);
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        CountDownLatch shellReady = new CountDownLatch(1);
+
+        executor.execute(() -> {
+            Shell.getShell();
+            Metrics.set("startup.shellMs", SystemClock.elapsedRealtime() - sCreateTime);
+            shellReady.countDown();
+        });
+        executor.execute(() -> {
+            StringMap.get(context);
+            Metrics.set("startup.stringMapMs", SystemClock.elapsedRealtime() - sCreateTime);
+        });
+        for (Bundle location : locationList) {
+            executor.execute(() -> {
+                try {
+                    shellReady.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                String sharedFolder = location.getString("sharedFolder", "");
+                String path = sharedFolder.isEmpty() ? "/" : "/" + sharedFolder;
+                if (CachedFileList.contains(path)) return;
+                String fingerprint = FileManager.getFingerprints(Collections.singletonList(path)).get(path);
+                CachedFileList.prefetchFileList(path, FileManager.getFileList(path, location.getLong("serverId")), fingerprint);
+                Metrics.set("startup.prefetchMs", SystemClock.elapsedRealtime() - sCreateTime);
+            });
+        }
+        executor.shutdown();
+    }
+
+    //called after every listing, only the first one is recorded
+    public static void onListing() {
+        if (sCreateTime == 0 || sListed.getAndSet(true)) return;
+        long time = SystemClock.elapsedRealtime() - sCreateTime;
+        Metrics.set("startup.firstListingMs", time);
+        Trace.i("startupWarmup", "first listing after ms", time);
+    }
+}
@@ -0,0 +1,97 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import com.topjohnwu.superuser.Shell;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+
+//stat calls of concurrent requests share one shell command: whoever comes first runs it for everybody queued so far
+public class StatBatch {
+    private static final int MAX_PATHS = 256; //keeps a command well below the argument limit
+
+    private static final Object sLock = new Object();
+    private static ArrayList<Pending> sQueue = new ArrayList<>();
+    private static boolean sRunning;
+
+    public static class Stat {
+        public final boolean isFile;
+        public final long size;
+        public final long lastModified;
+        public final String fingerprint; //same as FileManager.getFingerprints
+
+        Stat(boolean isFile, long size, long lastModified, String fingerprint) {
+            this.isFile = isFile;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.fingerprint = fingerprint;
+        }
+    }
+
+    //null if path does not exist or cannot be accessed
+    public static Stat stat(String path) {
+        Pending pending = new Pending(path);
+        ArrayList<Pending> batch;
+        synchronized (sLock) {
+            sQueue.add(pending);
+            while (sRunning && !pending.isDone) {
+                try {
+                    sLock.wait();
+                } catch (InterruptedException ignored) {
+                }
+            }
+            if (pending.isDone) return pending.stat;
+            sRunning = true;
+            batch = sQueue;
+            sQueue = new ArrayList<>();
+        }
+        try {
+            run(batch);
+        } finally {
+            synchronized (sLock) {
+                for (Pending item : batch) item.isDone = true;
+                sRunning = false;
+                sLock.notifyAll();
+            }
+        }
+        return pending.stat;
+    }
+
+    private static void run(ArrayList<Pending> batch) {
+        LinkedHashSet<String> paths = new LinkedHashSet<>();
+        for (Pending item : batch) paths.add(item.path);
+        Metrics.add("stat.batches", 1);
+        Metrics.add("stat.batchedPaths", paths.size());
+
+        HashMap<String, Stat> stats = new HashMap<>();
+        StringBuilder command = null;
+        int count = 0;
+        for (String path : paths) {
+            if (command == null) command = new StringBuilder("stat -L -c '%F|%s|%Y|%i %h %y|%n'");
+            command.append(" ").append(FileManager.quote(path));
+            if (++count % MAX_PATHS == 0 || count == paths.size()) {
+                //follows links like SuFile does, mtime in seconds like SuFile.lastModified
+                for (String line : Shell.cmd(command.append(" 2>/dev/null").toString()).exec().getOut()) {
+                    String[] fields = line.split("\\|", 5);
+                    if (fields.length < 5) continue;
+                    try {
+                        stats.put(fields[4], new Stat(fields[0].startsWith("regular"), Long.parseLong(fields[1]), Long.parseLong(fields[2]) * 1000, fields[3]));
+                    } catch (NumberFormatException ignored) {
+                    }
+                }
+                command = null;
+            }
+        }
+        for (Pending item : batch) item.stat = stats.get(item.path);
+    }
+
+    private static class Pending {
+        final String path;
+        Stat stat;
+        boolean isDone;
+
+        Pending(String path) {
+            this.path = path;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Environment;
+import android.os.storage.StorageManager;
+import android.os.storage.StorageVolume;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class StorageVolumes {
+    private static VolumeSource sSource;
+    private static volatile List<String> sVolumes;
+    private static BroadcastReceiver sReceiver;
+
+    //where the volumes come from, replaceable for tests
+    public interface VolumeSource {
+        List<String> getRemovableVolumes();
+    }
+
+    //discovers the volumes once, after that only mount and unmount events refresh them
+    public static synchronized void init(Context context) {
+        if (sSource == null) sSource = new StorageManagerSource(context.getApplicationContext());
+        refresh();
+        if (sReceiver != null) return;
+        sReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                refresh();
+            }
+        };
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_MEDIA_MOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_UNMOUNTED);
+        filter.addAction(Intent.ACTION_MEDIA_EJECT);
+        filter.addAction(Intent.ACTION_MEDIA_REMOVED);
+        filter.addAction(Intent.ACTION_MEDIA_BAD_REMOVAL);
+        filter.addDataScheme("file");
+        context.getApplicationContext().registerReceiver(sReceiver, filter);
+    }
+
+    public static synchronized void release(Context context) {
+        if (sReceiver == null) return;
+        context.getApplicationContext().unregisterReceiver(sReceiver);
+        sReceiver = null;
+    }
+
+    public static synchronized void setSource(VolumeSource source) {
+        sSource = source;
+        refresh();
+    }
+
+    public static synchronized void refresh() {
+        sVolumes = sSource != null ? Collections.unmodifiableList(new ArrayList<>(sSource.getRemovableVolumes())) : Collections.emptyList();
+    }
+
+    //names of the mounted removable volumes below /storage
+    public static List<String> getRemovableVolumes() {
+        List<String> volumes = sVolumes;
+        return volumes != null ? volumes : Collections.emptyList();
+    }
+
+    public static String getSDCardName() {
+        List<String> volumes = getRemovableVolumes();
+        return volumes.isEmpty() ? null : volumes.get(0);
+    }
+
+    private static class StorageManagerSource implements VolumeSource {
+        final Context mContext;
+
+        StorageManagerSource(Context context) {
+            mContext = context;
+        }
+
+        @Override
+        public List<String> getRemovableVolumes() {
+            ArrayList<String> volumes = new ArrayList<>();
+            StorageManager storageManager = mContext.getSystemService(StorageManager.class);
+            if (storageManager == null) return volumes;
+            for (StorageVolume volume : storageManager.getStorageVolumes()) {
+                //public volumes are mounted as /storage/<uuid>, ejected or unmounted cards keep their uuid but list nothing
+                if (volume.isRemovable() && volume.getUuid() != null && Environment.MEDIA_MOUNTED.equals(volume.getState())) volumes.add(volume.getUuid());
+            }
+            return volumes;
+        }
+    }
+}
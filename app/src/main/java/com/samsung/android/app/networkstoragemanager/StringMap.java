@@ -0,0 +1,41 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.content.Context;
+import android.os.Bundle;
+
+import java.lang.reflect.Field;
+import java.util.HashMap;
+
+public class StringMap {
+    private static final HashMap<String, Bundle> sStringMaps = new HashMap<>();
+
+    //R.string only changes with the locale, so the reflection runs once per locale
+    public static Bundle get(Context context) {
+        String locale = context.getResources().getConfiguration().getLocales().toLanguageTags();
+        Bundle stringMap;
+        synchronized (sStringMaps) {
+            stringMap = sStringMaps.get(locale);
+        }
+        if (stringMap == null) {
+            stringMap = load(context);
+            synchronized (sStringMaps) {
+                sStringMaps.put(locale, stringMap);
+            }
+        }
+        return new Bundle(stringMap);
+    }
+
+    private static Bundle load(Context context) {
+        Field[] fields = R.string.class.getDeclaredFields();
+        Bundle bFiled = new Bundle();
+        for (Field field : fields) {
+            try {
+                bFiled.putString(field.getName(), context.getResources().getString(field.getInt(null)));
+            } catch (Exception e) {
+                e.printStackTrace();
+                bFiled.putString(field.getName(), "");
+            }
+        }
+        return bFiled;
+    }
+}
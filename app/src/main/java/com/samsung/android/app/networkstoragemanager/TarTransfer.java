@@ -0,0 +1,315 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.RemoteException;
+
+import com.topjohnwu.superuser.Shell;
+import com.topjohnwu.superuser.io.SuFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//copies a folder tree as one tar stream from a root packer to a root unpacker instead of two shell streams per file
+//both run in the background of the main shell, so they see the same tree as the listings that check their work
+public class TarTransfer {
+    private static final int BLOCK = 512;
+    private static final int CHUNK = 64 * 1024;
+
+    private static volatile Boolean sHasTar;
+
+    public interface Progress {
+        void onProgress(long handledSize, int handledCount, String fileName) throws RemoteException;
+    }
+
+    public static boolean isAvailable() {
+        if (sHasTar == null) sHasTar = Shell.cmd("command -v tar").exec().isSuccess();
+        return sHasTar;
+    }
+
+    //bytes of file data copied, -1 if anything could not be copied even by the per-file fallback or canceled is set
+    //checkpoint may be null, otherwise it gets every folder and file found complete, so a retry file by file skips them
+    public static long copy(String sourcePath, String dstPath, CopyCheckpoint checkpoint, Progress progress, AtomicBoolean canceled) throws IOException, RemoteException {
+        long startTime = System.nanoTime();
+        //names, modes and mtimes come along, owners are left to the destination like with a per-file copy
+        RootProcess unpacker = RootProcess.start("tar -C " + FileManager.quote(dstPath) + " -xpof -", true, false);
+        RootProcess packer;
+        try {
+            packer = RootProcess.start("tar -C " + FileManager.quote(sourcePath) + " -cf - .", false, true);
+        } catch (IOException e) {
+            unpacker.destroy();
+            throw e;
+        }
+        long[] handled = new long[2];
+        boolean isCanceled = false;
+        try (InputStream in = packer.getInputStream(); OutputStream out = unpacker.getOutputStream()) {
+            isCanceled = !pump(in, out, progress, handled, canceled);
+        } catch (IOException e) {
+            //the unpacker died, whatever it did not write is copied one by one below
+            Trace.e("tarTransfer", sourcePath, e);
+            packer.destroy(); //nobody reads its output anymore
+        } finally {
+            if (isCanceled) {
+                packer.destroy();
+                unpacker.destroy();
+            } else {
+                waitFor(packer);
+                waitFor(unpacker);
+            }
+        }
+        Metrics.add("tar.transfers", 1);
+        Metrics.add("tar.files", handled[1]);
+        Metrics.add("tar.bytes", handled[0]);
+        if (isCanceled) {
+            Metrics.add("tar.canceled", 1);
+            return -1;
+        }
+
+        long size = repair(sourcePath, dstPath, checkpoint, progress, canceled);
+        Metrics.add("tar.ms", (System.nanoTime() - startTime) / 1000000);
+        return size;
+    }
+
+    //forwards the stream block by block, reading headers on the way for progress per file and per byte
+    //false if it stopped because canceled was set
+    private static boolean pump(InputStream in, OutputStream out, Progress progress, long[] handled, AtomicBoolean canceled) throws IOException, RemoteException {
+        byte[] header = new byte[BLOCK];
+        byte[] buf = new byte[CHUNK];
+        String longName = null;
+        while (readFully(in, header, BLOCK)) {
+            if (canceled.get()) return false;
+            out.write(header);
+            if (isZero(header)) continue; //end of archive, tar pads it with more zero blocks
+            long size = parseNumber(header, 124, 12);
+            char type = (char) header[156];
+            String name = getName(longName != null ? longName : getHeaderName(header));
+            longName = null;
+
+            long left = (size + BLOCK - 1) / BLOCK * BLOCK;
+            boolean isMeta = type == 'L' || type == 'x';
+            StringBuilder meta = isMeta ? new StringBuilder() : null;
+            long data = 0;
+            while (left > 0) {
+                if (canceled.get()) return false;
+                int len = (int) Math.min(buf.length, left);
+                if (!readFully(in, buf, len)) throw new IOException("truncated tar stream");
+                out.write(buf, 0, len);
+                IoScheduler.throttle(len);
+                left -= len;
+                int payload = (int) Math.min(len, size - data);
+                if (isMeta && payload > 0) meta.append(new String(buf, 0, payload, StandardCharsets.UTF_8));
+                data += len;
+                if (!isMeta && (type == '0' || type == 0)) {
+                    progress.onProgress(handled[0] + Math.min(data, size), (int) handled[1], name);
+                }
+            }
+            if (type == 'L') {
+                longName = trimNul(meta.toString());
+            } else if (type == 'x') {
+                longName = getPaxPath(meta.toString());
+            } else if (type == '0' || type == 0) {
+                handled[0] += size;
+                handled[1]++;
+                progress.onProgress(handled[0], (int) handled[1], name);
+            }
+        }
+        return true;
+    }
+
+    //compares both trees entry by entry, copies what tar skipped or cut short and checks links and special files too,
+    //so a move only deletes its source once everything is in place
+    //progress restarts from what is verified, files the unpacker got only partly are not counted twice
+    private static long repair(String sourcePath, String dstPath, CopyCheckpoint checkpoint, Progress progress, AtomicBoolean canceled) throws RemoteException {
+        HashMap<String, Entry> sources = listTree(sourcePath);
+        HashMap<String, Entry> copies = listTree(dstPath);
+        long[] handled = new long[2];
+        for (Map.Entry<String, Entry> entry : sources.entrySet()) {
+            if (entry.getValue().isFile() && entry.getValue().equals(copies.get(entry.getKey()))) {
+                handled[0] += entry.getValue().size;
+                handled[1]++;
+                if (checkpoint != null) checkpoint.onCompleted(dstPath + entry.getKey(), entry.getValue().size);
+            }
+        }
+        long size = 0;
+        boolean isSuccess = true;
+        int repaired = 0;
+        for (Map.Entry<String, Entry> entry : sources.entrySet()) {
+            if (canceled.get()) return -1;
+            String path = entry.getKey();
+            Entry source = entry.getValue();
+            Entry copied = copies.get(path);
+            if (source.isDirectory()) {
+                boolean isCreated = copied == null ? new SuFile(dstPath + path).mkdirs() : copied.isDirectory();
+                if (isCreated && checkpoint != null) checkpoint.onFolderCreated(dstPath + path);
+                isSuccess &= isCreated;
+                FileIndex.onCreated(dstPath + path, true);
+                continue;
+            }
+            if (source.isFile()) size += source.size;
+            if (!source.equals(copied)) {
+                repaired++;
+                SuFile parent = new SuFile(dstPath + path).getParentFile();
+                if (parent != null && !parent.isDirectory()) parent.mkdirs();
+                if (source.isFile()) {
+                    try {
+                        SparseCopy.copy(sourcePath + path, dstPath + path, null, handledSize -> {});
+                        handled[0] += source.size;
+                        handled[1]++;
+                        if (checkpoint != null) checkpoint.onCompleted(dstPath + path, source.size);
+                        progress.onProgress(handled[0], (int) handled[1], path.substring(path.lastIndexOf('/') + 1));
+                    } catch (IOException e) {
+                        Trace.e("tarTransfer", sourcePath + path, e);
+                        isSuccess = false;
+                        continue;
+                    }
+                } else if (!copySpecial(sourcePath + path, dstPath + path, source)) {
+                    Trace.event(Trace.ERROR, "tarTransfer", "not copied", sourcePath + path, 0);
+                    isSuccess = false;
+                    continue;
+                }
+            }
+            FileIndex.onCreated(dstPath + path, false);
+        }
+        Metrics.add("tar.fallbackFiles", repaired);
+        return isSuccess ? size : -1;
+    }
+
+    //links, fifos, sockets and devices, cp -a recreates them as they are, the copy is checked afterwards
+    private static boolean copySpecial(String sourcePath, String dstPath, Entry source) {
+        Shell.cmd("rm -f " + FileManager.quote(dstPath) + "; cp -a " + FileManager.quote(sourcePath) + " " + FileManager.quote(dstPath) + " 2>/dev/null").exec();
+        HashMap<String, Entry> copy = stat(Collections.singletonList(dstPath), "");
+        return source.equals(copy.get(dstPath));
+    }
+
+    //relative path ("/a/b") to type and size of every entry below root
+    private static HashMap<String, Entry> listTree(String root) {
+        String command = "find " + FileManager.quote(root) + " -mindepth 1 -exec stat -c '%s %F|%n' {} + 2>/dev/null";
+        return parse(Shell.cmd(command).exec().getOut(), root);
+    }
+
+    private static HashMap<String, Entry> stat(List<String> paths, String root) {
+        StringBuilder command = new StringBuilder("stat -c '%s %F|%n'");
+        for (String path : paths) command.append(' ').append(FileManager.quote(path));
+        return parse(Shell.cmd(command.append(" 2>/dev/null").toString()).exec().getOut(), root);
+    }
+
+    //lines of "<size> <type>|<path>", paths relative to root
+    private static HashMap<String, Entry> parse(List<String> lines, String root) {
+        HashMap<String, Entry> tree = new HashMap<>();
+        for (String line : lines) {
+            int space = line.indexOf(' ');
+            int bar = line.indexOf('|');
+            if (space < 0 || bar < space || !line.startsWith(root, bar + 1)) continue;
+            try {
+                tree.put(line.substring(bar + 1 + root.length()), new Entry(line.substring(space + 1, bar), Long.parseLong(line.substring(0, space))));
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return tree;
+    }
+
+    private static class Entry {
+        final String type; //as stat %F prints it
+        final long size; //of a link the length of its target
+
+        Entry(String type, long size) {
+            //an empty file is still a file
+            this.type = type.startsWith("regular") ? "regular file" : type;
+            this.size = size;
+        }
+
+        boolean isFile() {
+            return type.equals("regular file");
+        }
+
+        boolean isDirectory() {
+            return type.equals("directory");
+        }
+
+        //folders are equal whatever their size, their entries are compared on their own
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) return false;
+            Entry other = (Entry) o;
+            return type.equals(other.type) && (isDirectory() || size == other.size);
+        }
+
+        @Override
+        public int hashCode() {
+            return type.hashCode();
+        }
+    }
+
+    private static String getHeaderName(byte[] header) {
+        String name = trimNul(new String(header, 0, 100, StandardCharsets.UTF_8));
+        String prefix = trimNul(new String(header, 345, 155, StandardCharsets.UTF_8));
+        return prefix.isEmpty() ? name : prefix + "/" + name;
+    }
+
+    private static String getName(String path) {
+        if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+        return path.substring(path.lastIndexOf('/') + 1);
+    }
+
+    //records of "<length> key=value\n"
+    private static String getPaxPath(String records) {
+        for (String record : records.split("\n")) {
+            int index = record.indexOf(" path=");
+            if (index >= 0) return record.substring(index + 6);
+        }
+        return null;
+    }
+
+    private static String trimNul(String value) {
+        int index = value.indexOf('\0');
+        return index >= 0 ? value.substring(0, index) : value;
+    }
+
+    //octal, or base-256 with the high bit set for sizes of 8G and more
+    private static long parseNumber(byte[] header, int offset, int length) {
+        long value = 0;
+        if ((header[offset] & 0x80) != 0) {
+            for (int i = 1; i < length; i++) value = value << 8 | (header[offset + i] & 0xFF);
+            return value;
+        }
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b >= '0' && b <= '7') value = value * 8 + (b - '0');
+            else if (b != ' ' || value != 0) break;
+        }
+        return value;
+    }
+
+    private static boolean isZero(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean readFully(InputStream in, byte[] buf, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int len = in.read(buf, done, length - done);
+            if (len < 0) {
+                if (done == 0) return false;
+                throw new IOException("truncated tar stream");
+            }
+            done += len;
+        }
+        return true;
+    }
+
+    private static void waitFor(RootProcess process) {
+        try {
+            process.waitFor();
+        } catch (InterruptedException e) {
+            process.destroy();
+        }
+    }
+}
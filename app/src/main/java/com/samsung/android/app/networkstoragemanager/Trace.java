@@ -0,0 +1,84 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicInteger;
+
+//events go into a fixed ring buffer as references and numbers, text is only built for logcat and dumps
+public class Trace {
+    public static final int OFF = 0;
+    public static final int ERROR = 1;
+    public static final int INFO = 2;
+    public static final int DEBUG = 3;
+    public static final int VERBOSE = 4;
+
+    //compile-time cap, everything above is removed as dead code
+    public static final int MAX_LEVEL = VERBOSE;
+
+    public static volatile int sLevel = DEBUG; //recorded in the ring buffer
+    public static volatile int sLogLevel = ERROR; //also written to logcat
+
+    private static final int CAPACITY = 512; //power of two
+    private static final long[] sTimes = new long[CAPACITY];
+    private static final int[] sLevels = new int[CAPACITY];
+    private static final String[] sTags = new String[CAPACITY];
+    private static final String[] sTexts = new String[CAPACITY];
+    private static final String[] sDetails = new String[CAPACITY];
+    private static final long[] sValues = new long[CAPACITY];
+    private static final AtomicInteger sNext = new AtomicInteger();
+
+    public static boolean isEnabled(int level) {
+        return level <= MAX_LEVEL && level <= sLevel;
+    }
+
+    public static void e(String tag, String text, Throwable throwable) {
+        event(ERROR, tag, text, throwable.toString(), 0);
+    }
+
+    public static void i(String tag, String text, long value) {
+        event(INFO, tag, text, null, value);
+    }
+
+    public static void d(String tag, String text) {
+        event(DEBUG, tag, text, null, 0);
+    }
+
+    public static void d(String tag, String text, long value) {
+        event(DEBUG, tag, text, null, value);
+    }
+
+    public static void d(String tag, String text, String detail) {
+        event(DEBUG, tag, text, detail, 0);
+    }
+
+    public static void v(String tag, String text, String detail) {
+        event(VERBOSE, tag, text, detail, 0);
+    }
+
+    public static void event(int level, String tag, String text, String detail, long value) {
+        if (!isEnabled(level)) return;
+        int slot = sNext.getAndIncrement() & (CAPACITY - 1);
+        sTimes[slot] = SystemClock.elapsedRealtime();
+        sLevels[slot] = level;
+        sTags[slot] = tag;
+        sTexts[slot] = text;
+        sDetails[slot] = detail;
+        sValues[slot] = value;
+        if (level <= sLogLevel) Log.println(level == ERROR ? Log.ERROR : Log.INFO, tag, format(text, detail, value));
+    }
+
+    private static String format(String text, String detail, long value) {
+        return text + (detail != null ? " " + detail : "") + (value != 0 ? " " + value : "");
+    }
+
+    public static void dump(PrintWriter writer) {
+        int next = sNext.get();
+        for (int i = Math.max(0, next - CAPACITY); i < next; i++) {
+            int slot = i & (CAPACITY - 1);
+            if (sTags[slot] == null) continue;
+            writer.println(sTimes[slot] + " " + sLevels[slot] + " " + sTags[slot] + ": " + format(sTexts[slot], sDetails[slot], sValues[slot]));
+        }
+    }
+}
@@ -27,4 +27,13 @@ public interface RequestCode {
     int UPDATE_SERVER = 4;
     int UPLOAD = 123;
     int VERIFY_SERVER_INFO = 13;
+
+    //extension requests, not used by My Files itself
+    int GET_FOLDER_SIZE = 200;
+    int SEARCH = 201;
+    int BATCH_OPERATION = 202;
+    int GET_METRICS = 203;
+    int CANCEL_OPERATION = 204;
+    int GET_OPERATIONS = 205;
+    int FIND_DUPLICATES = 206;
 }
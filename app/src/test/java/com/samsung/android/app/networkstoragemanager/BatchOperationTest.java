@@ -0,0 +1,98 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.Bundle;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//a batch drops the cached listings below every source it removes, like deleteFile and renameFile do
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34) //robolectric needs java 21 for sdk 35, the build uses 17
+public class BatchOperationTest implements RequestCode {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private String mSourcePath;
+
+    @Before
+    public void setUp() throws IOException {
+        CachedFileList.clear();
+        File source = mFolder.newFolder("source");
+        File sub = new File(source, "sub");
+        assertTrue(sub.mkdir());
+        try (FileOutputStream out = new FileOutputStream(new File(sub, "a.txt"))) {
+            out.write(new byte[10]);
+        }
+        mSourcePath = source.getPath();
+        CachedFileList.saveFileList(mSourcePath, new ArrayList<>());
+        CachedFileList.saveFileList(mSourcePath + "/sub", new ArrayList<>());
+    }
+
+    @Test
+    public void delete() {
+        assertTrue(run(DELETE, null));
+        assertFalse(new File(mSourcePath).exists());
+        assertRemoved();
+    }
+
+    @Test
+    public void moveWithinDevice() throws IOException {
+        assertTrue(run(INTERNAL_MOVE, mFolder.newFolder("dst").getPath()));
+        assertTrue(new File(mFolder.getRoot(), "dst/source/sub/a.txt").isFile());
+        assertRemoved();
+    }
+
+    //copied and deleted, needs a second file system next to the temporary folder
+    @Test
+    public void moveAcrossDevices() throws IOException {
+        File shm = new File("/dev/shm");
+        assumeTrue(shm.isDirectory() && !Files.getAttribute(shm.toPath(), "unix:dev").equals(Files.getAttribute(mFolder.getRoot().toPath(), "unix:dev")));
+        File dst = Files.createTempDirectory(shm.toPath(), "batch").toFile();
+        try {
+            assertTrue(run(INTERNAL_MOVE, dst.getPath()));
+            assertTrue(new File(dst, "source/sub/a.txt").isFile());
+            assertRemoved();
+        } finally {
+            new com.topjohnwu.superuser.io.SuFile(dst.getPath()).deleteRecursive();
+        }
+    }
+
+    @Test
+    public void copyKeepsSourceListings() throws IOException {
+        assertTrue(run(INTERNAL_COPY, mFolder.newFolder("dst").getPath()));
+        assertTrue(CachedFileList.contains(mSourcePath));
+        assertTrue(CachedFileList.contains(mSourcePath + "/sub"));
+    }
+
+    private boolean run(int operation, String dstFolderPath) {
+        Bundle extras = new Bundle();
+        extras.putInt("operation", operation);
+        ArrayList<String> sourcePaths = new ArrayList<>();
+        sourcePaths.add(mSourcePath);
+        extras.putStringArrayList("sourcePaths", sourcePaths);
+        extras.putString("dstFolderPath", dstFolderPath);
+        return new BatchOperation(extras, null, 1, BATCH_OPERATION, new AtomicBoolean()).run(new Bundle());
+    }
+
+    private void assertRemoved() {
+        assertFalse(CachedFileList.contains(mSourcePath));
+        assertFalse(CachedFileList.contains(mSourcePath + "/sub"));
+    }
+}
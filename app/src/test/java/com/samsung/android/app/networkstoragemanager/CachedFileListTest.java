@@ -0,0 +1,172 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+//every patch is compared with a fresh listing of the folder it was made for
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34) //robolectric needs java 21 for sdk 35, the build uses 17
+public class CachedFileListTest {
+    private static final long SERVER_ID = 1;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private String mPath;
+
+    @Before
+    public void setUp() throws IOException {
+        CachedFileList.clear();
+        mPath = mFolder.getRoot().getPath();
+        write("a.txt", 10);
+        write("b.zip", 20);
+        mFolder.newFolder("sub");
+        CachedFileList.saveFileList(mPath, list(), "fingerprint");
+    }
+
+    @Test
+    public void addFile() throws IOException {
+        File file = write("c.txt", 30);
+        assertTrue(CachedFileList.addEntry(mPath, fileObject(file)));
+        assertMatchesDisk();
+    }
+
+    @Test
+    public void addFolder() {
+        File folder = new File(mPath, "new folder");
+        assertTrue(folder.mkdir());
+        assertTrue(CachedFileList.addEntry(mPath, fileObject(folder)));
+        assertMatchesDisk();
+    }
+
+    //an overwritten file is added again, the old entry must not stay next to it
+    @Test
+    public void addReplacesSameName() throws IOException {
+        File file = write("a.txt", 50);
+        assertTrue(CachedFileList.addEntry(mPath, fileObject(file)));
+        assertMatchesDisk();
+    }
+
+    @Test
+    public void removeFile() {
+        assertTrue(new File(mPath, "a.txt").delete());
+        assertTrue(CachedFileList.removeEntry(mPath, "a.txt"));
+        assertMatchesDisk();
+    }
+
+    @Test
+    public void removeFolder() {
+        assertTrue(new File(mPath, "sub").delete());
+        assertTrue(CachedFileList.removeEntry(mPath, "sub"));
+        assertMatchesDisk();
+    }
+
+    @Test
+    public void renameFile() {
+        assertTrue(new File(mPath, "a.txt").renameTo(new File(mPath, "renamed.zip")));
+        assertTrue(CachedFileList.renameEntry(mPath, "a.txt", "renamed.zip"));
+        assertMatchesDisk();
+    }
+
+    @Test
+    public void renameFolder() {
+        assertTrue(new File(mPath, "sub").renameTo(new File(mPath, "other")));
+        assertTrue(CachedFileList.renameEntry(mPath, "sub", "other"));
+        assertMatchesDisk();
+    }
+
+    //rename replaces an existing file of the new name
+    @Test
+    public void renameOverExisting() {
+        assertTrue(new File(mPath, "a.txt").renameTo(new File(mPath, "b.zip")));
+        assertTrue(CachedFileList.renameEntry(mPath, "a.txt", "b.zip"));
+        assertMatchesDisk();
+    }
+
+    //a listing without the renamed entry is outdated, so it is dropped rather than patched
+    @Test
+    public void renameUnknownDropsListing() {
+        assertFalse(CachedFileList.renameEntry(mPath, "missing", "other"));
+        assertFalse(CachedFileList.contains(mPath));
+    }
+
+    @Test
+    public void patchesNeedCachedListing() {
+        String path = mPath + "/sub";
+        assertFalse(CachedFileList.addEntry(path, fileObject(new File(mPath, "a.txt"))));
+        assertFalse(CachedFileList.removeEntry(path, "a.txt"));
+        assertFalse(CachedFileList.renameEntry(path, "a.txt", "c.txt"));
+        assertFalse(CachedFileList.contains(path));
+    }
+
+    //a patch is a new listing: new version, sort orders of the old one are gone, the fingerprint stays
+    @Test
+    public void patchReplacesListing() {
+        ArrayList<Bundle> fileList = CachedFileList.get(mPath);
+        long version = CachedFileList.getVersion(mPath);
+        CachedFileList.setSortOrder(mPath, fileList, 0, new int[]{2, 1, 0});
+
+        assertTrue(new File(mPath, "a.txt").delete());
+        assertTrue(CachedFileList.removeEntry(mPath, "a.txt"));
+
+        assertEquals(3, fileList.size());
+        assertNotEquals(version, CachedFileList.getVersion(mPath));
+        assertNull(CachedFileList.getSortOrder(mPath, CachedFileList.get(mPath), 0));
+        assertEquals("fingerprint", CachedFileList.getFingerprint(mPath));
+        assertEquals(CachedFileList.NOT_FOUND, CachedFileList.findEntry(mPath, "a.txt"));
+    }
+
+    private File write(String name, int size) throws IOException {
+        File file = new File(mPath, name);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(new byte[size]);
+        }
+        return file;
+    }
+
+    //the same entries FileManager makes when it lists a folder
+    private static Bundle fileObject(File file) {
+        boolean isFile = file.isFile();
+        return FileManager.getFileObject(file.getPath(), file.getName(), isFile, isFile ? file.length() : 0, file.lastModified(), SERVER_ID);
+    }
+
+    private ArrayList<Bundle> list() {
+        ArrayList<Bundle> fileList = new ArrayList<>();
+        for (File file : mFolder.getRoot().listFiles()) fileList.add(fileObject(file));
+        return fileList;
+    }
+
+    private void assertMatchesDisk() {
+        assertEquals(describe(list()), describe(CachedFileList.get(mPath)));
+    }
+
+    //entries by name, a name listed twice shows up as a mismatch in the count
+    private static String describe(ArrayList<Bundle> fileList) {
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (Bundle bFile : fileList) {
+            StringBuilder entry = new StringBuilder();
+            for (String key : new TreeSet<>(bFile.keySet())) entry.append(key).append('=').append(bFile.get(key)).append(' ');
+            entries.put(bFile.getString("fileName"), entry.toString());
+        }
+        return fileList.size() + " " + entries;
+    }
+}
@@ -0,0 +1,211 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34) //robolectric needs java 21 for sdk 35, the build uses 17
+public class FileManagerTest implements RequestCode {
+    private static final long SERVER_ID = 1;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private byte[] mData;
+    private String mFilePath;
+    private String mPath;
+
+    @Before
+    public void setUp() throws IOException {
+        RootProcess.init(RuntimeEnvironment.getApplication());
+        ListingEngine.init(RuntimeEnvironment.getApplication());
+        CachedFileList.clear();
+        mPath = mFolder.getRoot().getPath();
+        mData = new byte[200 * 1024];
+        new Random(7).nextBytes(mData);
+        File file = mFolder.newFile("data.bin");
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(mData);
+        }
+        mFilePath = file.getPath();
+        mFolder.newFile("a.txt");
+        mFolder.newFolder("sub");
+        mFolder.newFile("sub/inner.txt");
+    }
+
+    //every mutating entry point patches the cached listing of the parent instead of dropping it,
+    //the patch must look like a fresh listing and carry the folder's new fingerprint
+
+    @Test
+    public void renameFile() {
+        cache(mPath);
+        assertTrue(FileManager.renameFile(mPath + "/a.txt", "b.txt"));
+        assertPatched(mPath);
+    }
+
+    @Test
+    public void renameFileToArchive() {
+        cache(mPath);
+        assertTrue(FileManager.renameFile(mPath + "/a.txt", "a.zip"));
+        assertPatched(mPath);
+    }
+
+    //listings below a renamed folder are under the old path, they are dropped
+    @Test
+    public void renameFolder() {
+        cache(mPath);
+        cache(mPath + "/sub");
+        assertTrue(FileManager.renameFile(mPath + "/sub", "other"));
+        assertPatched(mPath);
+        assertFalse(CachedFileList.contains(mPath + "/sub"));
+    }
+
+    @Test
+    public void newFolder() {
+        cache(mPath);
+        assertTrue(FileManager.newFolder(mPath, "new folder"));
+        assertPatched(mPath);
+    }
+
+    @Test
+    public void deleteFile() {
+        cache(mPath);
+        assertTrue(FileManager.deleteFile(mPath + "/a.txt"));
+        assertPatched(mPath);
+    }
+
+    @Test
+    public void deleteFolder() {
+        cache(mPath);
+        cache(mPath + "/sub");
+        assertTrue(FileManager.deleteFile(mPath + "/sub"));
+        assertPatched(mPath);
+        assertFalse(CachedFileList.contains(mPath + "/sub"));
+    }
+
+    @Test
+    public void copyFile() {
+        cache(mPath);
+        assertTrue(copy(mFilePath, "copy.bin").isSuccess);
+        assertPatched(mPath);
+    }
+
+    //over an existing name the old entry is replaced
+    @Test
+    public void copyOverExisting() {
+        cache(mPath);
+        assertTrue(copy(mFilePath, "a.txt").isSuccess);
+        assertPatched(mPath);
+    }
+
+    @Test
+    public void copyFolder() {
+        cache(mPath);
+        assertTrue(copy(mPath + "/sub", "sub copy").isSuccess);
+        assertPatched(mPath);
+    }
+
+    @Test
+    public void rangedRead() throws IOException {
+        assertArrayEquals(mData, read(mFilePath, 0, -1));
+        assertArrayEquals(Arrays.copyOfRange(mData, 100, 150), read(mFilePath, 100, 50));
+        assertArrayEquals(Arrays.copyOfRange(mData, 70000, mData.length), read(mFilePath, 70000, -1));
+        assertArrayEquals(Arrays.copyOfRange(mData, mData.length - 10, mData.length), read(mFilePath, mData.length - 10, 100));
+        assertArrayEquals(new byte[0], read(mFilePath, mData.length + 1, 10));
+    }
+
+    //entries are read through the same ranged opener, stored ones are a range of the archive itself
+    @Test
+    public void rangedReadInArchive() throws IOException {
+        File zip = new File(mFolder.getRoot(), "archive.zip");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(zip))) {
+            out.putNextEntry(new ZipEntry("deflated.bin"));
+            out.write(mData);
+            out.closeEntry();
+        }
+        String entryPath = zip.getPath() + "/deflated.bin";
+
+        assertArrayEquals(mData, read(entryPath, 0, -1));
+        assertArrayEquals(Arrays.copyOfRange(mData, 1000, 3000), read(entryPath, 1000, 2000));
+    }
+
+    private FileManager.twoReturn copy(String sourcePath, String dstFileName) {
+        return FileManager.copy(sourcePath, mPath, dstFileName, new ProgressCallback(), 1, INTERNAL_COPY, 0, null, null, null, new AtomicBoolean());
+    }
+
+    private static void cache(String path) {
+        FileManager.getFileListWithCache(path, SERVER_ID);
+        assertTrue(CachedFileList.contains(path));
+    }
+
+    private static void assertPatched(String path) {
+        assertTrue(CachedFileList.contains(path));
+        assertEquals(describe(FileManager.getFileList(path, SERVER_ID)), describe(CachedFileList.get(path)));
+        assertEquals(FileManager.getFingerprints(Collections.singletonList(path)).get(path), CachedFileList.getFingerprint(path));
+    }
+
+    //entries by name, a name listed twice shows up as a mismatch in the count
+    private static String describe(ArrayList<Bundle> fileList) {
+        TreeMap<String, String> entries = new TreeMap<>();
+        for (Bundle bFile : fileList) {
+            StringBuilder entry = new StringBuilder();
+            for (String key : new TreeSet<>(bFile.keySet())) entry.append(key).append('=').append(bFile.get(key)).append(' ');
+            entries.put(bFile.getString("fileName"), entry.toString());
+        }
+        return fileList.size() + " " + entries;
+    }
+
+    private static byte[] read(String filePath, long offset, long length) throws IOException {
+        ParcelFileDescriptor fileDescriptor = FileManager.getFileDescriptor(filePath, offset, length);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor)) {
+            byte[] buf = new byte[8192];
+            int len;
+            while ((len = in.read(buf)) > 0) out.write(buf, 0, len);
+        }
+        return out.toByteArray();
+    }
+
+    private static class ProgressCallback implements IProgressCallback {
+        @Override
+        public void onProgress(long requestId, int reqCode, Bundle progress) {
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.samsung.android.app.networkstoragemanager.ListingEngine.ListingBuffer;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+//feeds the parser what find and stat print, raw modes in hex: 81a4 file, 41ed folder, a1ff link
+public class ListingEngineTest {
+    private static final String FILE = "81a4 ";
+    private static final String FOLDER = "41ed ";
+    private static final String LINK = "a1ff ";
+
+    @Test
+    public void entries() throws IOException {
+        ListingBuffer buffer = read(FILE + "12 1700000000 /p/a.txt\n" + FOLDER + "4096 -5 /p/sub\n");
+
+        assertEquals(2, buffer.size());
+        assertEquals("/p/a.txt", buffer.getPath(0));
+        assertEquals("a.txt", buffer.getName(0));
+        assertTrue(buffer.isFile(0));
+        assertEquals(12, buffer.getSize(0));
+        assertEquals(1700000000000L, buffer.getDate(0));
+        assertFalse(buffer.isFile(1));
+        assertEquals(-5000, buffer.getDate(1));
+        assertFalse(buffer.hasBrokenLines());
+    }
+
+    //the second pass prints what a link points to, it replaces the link's fields and adds no entry
+    @Test
+    public void followedLink() throws IOException {
+        ListingBuffer buffer = read(LINK + "7 100 /p/link\n" + FILE + "1 200 /p/a\n" + "> " + FOLDER + "4096 300 /p/link\n");
+
+        assertEquals(2, buffer.size());
+        assertEquals("/p/link", buffer.getPath(0));
+        assertFalse(buffer.isFile(0));
+        assertEquals(4096, buffer.getSize(0));
+        assertEquals(300000, buffer.getDate(0));
+        assertEquals("/p/a", buffer.getPath(1));
+    }
+
+    //stat -L prints nothing for a dangling link, it stays a file with its own fields
+    @Test
+    public void danglingLink() throws IOException {
+        ListingBuffer buffer = read(LINK + "9 100 /p/dangling\n" + "> " + FILE + "5 200 /p/other\n");
+
+        assertEquals(1, buffer.size());
+        assertEquals("dangling", buffer.getName(0));
+        assertTrue(buffer.isFile(0));
+        assertEquals(9, buffer.getSize(0));
+        assertEquals(100000, buffer.getDate(0));
+    }
+
+    //names are bytes up to the newline, spaces and utf-8 included
+    @Test
+    public void oddNames() throws IOException {
+        byte[] latin1 = (FILE + "1 1 /p/caf\u00e9\n").getBytes(StandardCharsets.ISO_8859_1);
+        ListingBuffer buffer = read(concat((FILE + "1 1 /p/with  spaces \n" + FILE + "2 2 /p/\u00fcml\u00e4ut \u65e5\u672c \ud83d\ude00\n" + FILE + "3 3 /p/-dash\n").getBytes(StandardCharsets.UTF_8), latin1));
+
+        assertEquals(4, buffer.size());
+        assertEquals("with  spaces ", buffer.getName(0));
+        assertEquals("\u00fcml\u00e4ut \u65e5\u672c \ud83d\ude00", buffer.getName(1));
+        assertEquals("-dash", buffer.getName(2));
+        assertEquals("caf\ufffd", buffer.getName(3)); //not utf-8, still listed with a replacement char
+        assertFalse(buffer.hasBrokenLines());
+    }
+
+    //a newline in a name leaves a line that does not parse, so list() gives the folder to the old way
+    @Test
+    public void nameWithNewline() throws IOException {
+        ListingBuffer buffer = read(FILE + "1 1 /p/a\n" + FILE + "2 2 /p/first\nsecond\n" + FILE + "3 3 /p/b\n");
+
+        assertTrue(buffer.hasBrokenLines());
+        assertEquals("/p/b", buffer.getPath(buffer.size() - 1));
+    }
+
+    @Test
+    public void malformedLines() throws IOException {
+        ListingBuffer buffer = read("81x4 1 1 /p/bad mode\n" + FILE + "1 /p/missing field\n" + FILE + "1 1 /p/good\n" + "> " + FILE + "-1 1 /p/good\n");
+
+        assertEquals(1, buffer.size());
+        assertEquals("/p/good", buffer.getPath(0));
+        assertEquals(1, buffer.getSize(0));
+        assertTrue(buffer.hasBrokenLines());
+    }
+
+    //reads end anywhere in a line, a listing killed on timeout ends in the middle of one
+    @Test
+    public void partialBatches() throws IOException {
+        String listing = FILE + "10 100 /p/a\n" + FOLDER + "4096 200 /p/b\n" + LINK + "3 300 /p/c\n" + "> " + FILE + "30 400 /p/c\n" + FILE + "5 500 /p/cut";
+        byte[] bytes = listing.getBytes(StandardCharsets.UTF_8);
+        for (int chunk = 1; chunk <= 7; chunk++) {
+            ListingBuffer buffer = new ListingBuffer();
+            ListingEngine.read(new ChunkedInputStream(bytes, chunk), buffer);
+
+            assertEquals(3, buffer.size());
+            assertEquals("/p/b", buffer.getPath(1));
+            assertEquals(30, buffer.getSize(2));
+            assertEquals(400000, buffer.getDate(2));
+            assertFalse(buffer.hasBrokenLines());
+        }
+    }
+
+    //a batch seen before the rest of the stream arrived keeps its entries
+    @Test
+    public void bufferGrowsAcrossReads() throws IOException {
+        StringBuilder listing = new StringBuilder();
+        for (int i = 0; i < 5000; i++) listing.append(FILE).append(i).append(" 1 /p/").append("file").append(i).append('\n');
+        ListingBuffer buffer = new ListingBuffer();
+        ListingEngine.read(new ChunkedInputStream(listing.toString().getBytes(StandardCharsets.UTF_8), 1000), buffer);
+
+        assertEquals(5000, buffer.size());
+        assertEquals("file0", buffer.getName(0));
+        assertEquals("/p/file4999", buffer.getPath(4999));
+        assertEquals(4999, buffer.getSize(4999));
+    }
+
+    @Test
+    public void command() {
+        assertEquals("find '/p/it'\\''s' -mindepth 1 -maxdepth 1 -exec stat -c '%f %s %Y %n' {} + 2>/dev/null;"
+                        + " find '/p/it'\\''s' -mindepth 1 -maxdepth 1 -type l -exec stat -L -c '> %f %s %Y %n' {} + 2>/dev/null",
+                ListingEngine.command("/p/it's", 0, "/cache"));
+        assertEquals("T=$(mktemp -d '/cache/listing.XXXXXX') && find '/p' -mindepth 1 -maxdepth 1 -print0"
+                        + " | xargs -0 -P 4 -n 1024 sh -c 'stat -c \"%f %s %Y %n\" \"$@\" > \"$0/$$\" 2>/dev/null' \"$T\"; cat \"$T\"/*; rm -rf \"$T\";"
+                        + " find '/p' -mindepth 1 -maxdepth 1 -type l -exec stat -L -c '> %f %s %Y %n' {} + 2>/dev/null",
+                ListingEngine.command("/p", 1024, "/cache"));
+    }
+
+    private static ListingBuffer read(String listing) throws IOException {
+        return read(listing.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ListingBuffer read(byte[] listing) throws IOException {
+        ListingBuffer buffer = new ListingBuffer();
+        ListingEngine.read(new ByteArrayInputStream(listing), buffer);
+        return buffer;
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] bytes = new byte[a.length + b.length];
+        System.arraycopy(a, 0, bytes, 0, a.length);
+        System.arraycopy(b, 0, bytes, a.length, b.length);
+        return bytes;
+    }
+
+    //hands out at most chunk bytes per read like a pipe
+    private static class ChunkedInputStream extends InputStream {
+        private final byte[] mBytes;
+        private final int mChunk;
+        private int mPosition;
+
+        ChunkedInputStream(byte[] bytes, int chunk) {
+            mBytes = bytes;
+            mChunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mBytes.length ? mBytes[mPosition++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (mPosition >= mBytes.length) return -1;
+            int n = Math.min(Math.min(len, mChunk), mBytes.length - mPosition);
+            System.arraycopy(mBytes, mPosition, b, off, n);
+            mPosition += n;
+            return n;
+        }
+    }
+}
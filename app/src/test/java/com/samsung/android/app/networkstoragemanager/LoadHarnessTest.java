@@ -0,0 +1,309 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertEquals;
+
+import android.os.Bundle;
+import android.os.IBinder;
+import android.os.ParcelFileDescriptor;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.samsung.android.app.networkstoragemanager.libsupport.IResultCallback;
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+//plays scripted My Files traffic against MainService on a local tree and prints throughput, latency and threads
+//scenarios: browse, read, copy, mixed
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34) //robolectric needs java 21 for sdk 35, the build uses 17
+public class LoadHarnessTest implements RequestCode {
+    private static final int FOLDERS = 5;
+    private static final int FILES = 20;
+    private static final int CLIENTS = 8;
+    private static final int REQUESTS = 200;
+    private static final long TIMEOUT = 60000;
+    private static final long SERVER_ID = 1; //root
+    private static final AtomicLong sNextId = new AtomicLong(1000000);
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private MainService mService;
+    private final ResultDispatcher mDispatcher = new ResultDispatcher();
+    private String mRoot;
+    private String mCopyPath;
+    private final ConcurrentHashMap<Long, Pending> mPending = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, ArrayList<Long>> mLatencies = new ConcurrentHashMap<>();
+    private final AtomicInteger mErrors = new AtomicInteger();
+    private final AtomicInteger mTimeouts = new AtomicInteger();
+    private final AtomicInteger mProgressCount = new AtomicInteger();
+    private final AtomicLong mBytes = new AtomicLong();
+    private volatile int mPeakThreads;
+
+    @Before
+    public void setUp() throws IOException {
+        mService = Robolectric.buildService(MainService.class).get();
+        mDispatcher.setResultCallback(new ResultCallback());
+        mDispatcher.setProgressCallback(new ProgressCallback());
+        mRoot = mFolder.getRoot().getPath();
+        mCopyPath = mFolder.newFolder("copies").getPath();
+
+        //small files and a few of 1 MB
+        Random random = new Random(42);
+        byte[] buf = new byte[64 * 1024];
+        for (int i = 0; i < FOLDERS; i++) {
+            File folder = mFolder.newFolder("folder" + i);
+            for (int j = 0; j < FILES; j++) {
+                long size = j % 10 == 0 ? 1024 * 1024 : 1024 + random.nextInt(64 * 1024);
+                try (FileOutputStream out = new FileOutputStream(new File(folder, "file" + j + ".bin"))) {
+                    for (long left = size; left > 0; left -= buf.length) {
+                        random.nextBytes(buf);
+                        out.write(buf, 0, (int) Math.min(buf.length, left));
+                    }
+                }
+            }
+        }
+    }
+
+    //weights of GET_FILE_LIST, GET_FILE_OBJECT, EXIST, GET_FILE_DESCRIPTOR and INTERNAL_COPY
+    @Test
+    public void browse() throws InterruptedException {
+        play("browse", new int[]{50, 30, 20, 0, 0});
+    }
+
+    @Test
+    public void read() throws InterruptedException {
+        play("read", new int[]{0, 0, 0, 100, 0});
+    }
+
+    @Test
+    public void copy() throws InterruptedException {
+        play("copy", new int[]{0, 0, 0, 0, 100});
+    }
+
+    @Test
+    public void mixed() throws InterruptedException {
+        play("mixed", new int[]{40, 20, 10, 20, 10});
+    }
+
+    private void play(String scenario, int[] mix) throws InterruptedException {
+        Thread sampler = new Thread(() -> {
+            while (!Thread.currentThread().isInterrupted()) {
+                mPeakThreads = Math.max(mPeakThreads, countThreads());
+                try {
+                    Thread.sleep(50);
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }, "LoadHarness sampler");
+        sampler.start();
+
+        int threadsBefore = countThreads();
+        ExecutorService executor = Executors.newFixedThreadPool(CLIENTS);
+        AtomicInteger issued = new AtomicInteger();
+        long startTime = System.nanoTime();
+        for (int c = 0; c < CLIENTS; c++) {
+            long seed = c;
+            executor.execute(() -> {
+                Random random = new Random(seed);
+                while (issued.incrementAndGet() <= REQUESTS) request(pick(mix, random), random);
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(TIMEOUT * REQUESTS, TimeUnit.MILLISECONDS);
+        long duration = Math.max(1, (System.nanoTime() - startTime) / 1000000);
+        sampler.interrupt();
+
+        System.out.println("scenario " + scenario + ": " + CLIENTS + " clients, " + REQUESTS + " requests in " + duration + "ms");
+        System.out.println(String.format("  throughput %.1f req/s, %.1f MB/s", REQUESTS * 1000.0 / duration, mBytes.get() * 1000.0 / duration / (1024 * 1024)));
+        System.out.println("  errors " + mErrors.get() + ", timeouts " + mTimeouts.get() + ", progress callbacks " + mProgressCount.get());
+        System.out.println("  threads before " + threadsBefore + ", peak " + mPeakThreads + ", after " + countThreads());
+        int answered = 0;
+        for (Map.Entry<String, ArrayList<Long>> entry : new TreeMap<>(mLatencies).entrySet()) {
+            long[] latencies;
+            synchronized (entry.getValue()) {
+                latencies = new long[entry.getValue().size()];
+                for (int i = 0; i < latencies.length; i++) latencies[i] = entry.getValue().get(i);
+            }
+            Arrays.sort(latencies);
+            answered += latencies.length;
+            System.out.println("  " + entry.getKey() + ": n=" + latencies.length + " p50=" + percentile(latencies, 50) + "ms p90=" + percentile(latencies, 90)
+                    + "ms p99=" + percentile(latencies, 99) + "ms max=" + (latencies.length > 0 ? latencies[latencies.length - 1] : 0) + "ms");
+        }
+
+        assertEquals(0, mTimeouts.get());
+        assertEquals(0, mErrors.get());
+        assertEquals(REQUESTS, answered);
+    }
+
+    private static int pick(int[] mix, Random random) {
+        int total = 0;
+        for (int weight : mix) total += weight;
+        int value = random.nextInt(total);
+        for (int i = 0; i < mix.length; i++) {
+            value -= mix[i];
+            if (value < 0) return i;
+        }
+        return mix.length - 1;
+    }
+
+    private void request(int operation, Random random) {
+        String folderPath = mRoot + "/folder" + random.nextInt(FOLDERS);
+        String filePath = folderPath + "/file" + random.nextInt(FILES) + ".bin";
+        Bundle extras = new Bundle();
+        String name;
+        int reqCode;
+        switch (operation) {
+            case 0:
+                name = "list";
+                reqCode = GET_FILE_LIST;
+                extras.putString("filePath", folderPath);
+                extras.putLong("serverId", SERVER_ID);
+                break;
+            case 1:
+                name = "fileObject";
+                reqCode = GET_FILE_OBJECT;
+                extras.putString("filePath", filePath);
+                extras.putLong("serverId", SERVER_ID);
+                break;
+            case 2:
+                name = "exist";
+                reqCode = EXIST;
+                extras.putString("sourcePath", filePath);
+                break;
+            case 3:
+                name = "read";
+                reqCode = GET_FILE_DESCRIPTOR;
+                extras.putString("sourcePath", filePath);
+                break;
+            default:
+                name = "copy";
+                reqCode = INTERNAL_COPY;
+                extras.putString("sourcePath", filePath);
+                extras.putString("dstFolderPath", mCopyPath);
+                extras.putString("dstFileName", sNextId.get() + "-" + random.nextInt(Integer.MAX_VALUE) + ".bin");
+                break;
+        }
+
+        //each request gets an id of its own, the harness finds its result by it
+        long id = sNextId.incrementAndGet();
+        Pending pending = new Pending();
+        mPending.put(id, pending);
+        long startTime = System.nanoTime();
+        try {
+            mService.asyncRequest(id, "root", reqCode, extras, mDispatcher);
+            if (!pending.latch.await(TIMEOUT, TimeUnit.MILLISECONDS)) {
+                mTimeouts.incrementAndGet();
+                return;
+            }
+            Bundle result = pending.result;
+            if (result == null) {
+                mErrors.incrementAndGet();
+                return;
+            }
+            if (reqCode == GET_FILE_DESCRIPTOR) {
+                mBytes.addAndGet(drain(result.getParcelable("fileDescriptor")));
+            } else if (reqCode == INTERNAL_COPY) {
+                //a failed copy moved nothing worth counting
+                if (result.getBoolean("isSuccess")) mBytes.addAndGet(new File(filePath).length());
+                else mErrors.incrementAndGet();
+            }
+            mLatencies.computeIfAbsent(name, key -> new ArrayList<>());
+            ArrayList<Long> latencies = mLatencies.get(name);
+            synchronized (latencies) {
+                latencies.add((System.nanoTime() - startTime) / 1000000);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            mErrors.incrementAndGet();
+        } finally {
+            mPending.remove(id);
+        }
+    }
+
+    private long drain(ParcelFileDescriptor fileDescriptor) throws IOException {
+        if (fileDescriptor == null) {
+            mErrors.incrementAndGet();
+            return 0;
+        }
+        long total = 0;
+        byte[] buf = new byte[64 * 1024];
+        try (InputStream in = new ParcelFileDescriptor.AutoCloseInputStream(fileDescriptor)) {
+            int len;
+            while ((len = in.read(buf)) > 0) total += len;
+        }
+        return total;
+    }
+
+    private static int countThreads() {
+        String[] tasks = new File("/proc/self/task").list();
+        return tasks != null ? tasks.length : Thread.activeCount();
+    }
+
+    private static long percentile(long[] sorted, int percentile) {
+        if (sorted.length == 0) return 0;
+        return sorted[Math.min(sorted.length - 1, sorted.length * percentile / 100)];
+    }
+
+    private static class Pending {
+        final CountDownLatch latch = new CountDownLatch(1);
+        volatile Bundle result;
+    }
+
+    private class ResultCallback implements IResultCallback {
+        @Override
+        public void onSuccess(long id, int reqCode, Bundle result) {
+            Pending pending = mPending.get(id);
+            if (pending == null) return;
+            pending.result = result;
+            pending.latch.countDown();
+        }
+
+        @Override
+        public void onError(long id, int reqCode, int errorCode, Bundle result) {
+            Pending pending = mPending.get(id);
+            if (pending != null) pending.latch.countDown();
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+
+    private class ProgressCallback implements IProgressCallback {
+        @Override
+        public void onProgress(long id, int reqCode, Bundle progress) {
+            mProgressCount.incrementAndGet();
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+}
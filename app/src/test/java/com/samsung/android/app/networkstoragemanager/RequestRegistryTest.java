@@ -0,0 +1,73 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.samsung.android.app.networkstoragemanager.MainService.RequestInfo;
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34) //robolectric needs java 21 for sdk 35, the build uses 17
+public class RequestRegistryTest implements RequestCode {
+    private static final long SERVER_ID = 1;
+
+    private final RequestRegistry mRequests = new RequestRegistry();
+    private final ResultDispatcher mDispatcher = new ResultDispatcher();
+
+    //My Files lists the location again right after a copy failed, retry still continues the copy
+    @Test
+    public void retryIgnoresListingAfterFailedCopy() {
+        RequestInfo copy = run(INTERNAL_COPY, false);
+        run(GET_FILE_LIST, true);
+        run(EXIST, false);
+
+        RequestInfo retried = mRequests.takeFailedCopy(SERVER_ID);
+        assertSame(copy, retried);
+        assertSame(copy.mCheckpoint, retried.mCheckpoint);
+        assertNull(mRequests.takeFailedCopy(SERVER_ID));
+    }
+
+    @Test
+    public void retryNeedsFailedCopy() {
+        run(INTERNAL_COPY, true);
+        run(GET_FILE_LIST, false);
+        assertNull(mRequests.takeFailedCopy(SERVER_ID));
+        assertNull(mRequests.takeFailedCopy(SERVER_ID + 1));
+    }
+
+    @Test
+    public void canceledCopyIsNotRetried() {
+        RequestInfo move = start(INTERNAL_MOVE);
+        mRequests.cancel(move);
+        mRequests.finish(move, false);
+        assertNull(mRequests.takeFailedCopy(SERVER_ID));
+    }
+
+    //a retry that fails again can be retried with the same checkpoint
+    @Test
+    public void failedRetryIsKept() {
+        RequestInfo copy = run(INTERNAL_COPY, false);
+        RequestInfo retry = new RequestInfo(mRequests.nextId(), SERVER_ID, "root", INTERNAL_COPY, null, mRequests.takeFailedCopy(SERVER_ID).mCheckpoint, mDispatcher);
+        mRequests.add(retry);
+        mRequests.finish(retry, false);
+        assertSame(copy.mCheckpoint, mRequests.takeFailedCopy(SERVER_ID).mCheckpoint);
+    }
+
+    private RequestInfo start(int reqCode) {
+        CopyCheckpoint checkpoint = reqCode == INTERNAL_COPY || reqCode == INTERNAL_MOVE ? new CopyCheckpoint() : null;
+        RequestInfo requestInfo = new RequestInfo(mRequests.nextId(), SERVER_ID, "root", reqCode, null, checkpoint, mDispatcher);
+        mRequests.add(requestInfo);
+        return requestInfo;
+    }
+
+    private RequestInfo run(int reqCode, boolean isSuccess) {
+        RequestInfo requestInfo = start(reqCode);
+        mRequests.finish(requestInfo, isSuccess);
+        return requestInfo;
+    }
+}
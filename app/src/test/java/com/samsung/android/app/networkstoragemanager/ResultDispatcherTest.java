@@ -0,0 +1,77 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.os.Bundle;
+import android.os.IBinder;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34) //robolectric needs java 21 for sdk 35, the build uses 17
+public class ResultDispatcherTest implements RequestCode {
+    private static final long SERVER_ID = 7;
+
+    //two operations of one location queue progress while the client is busy, each keeps its own newest state
+    @Test
+    public void coalescesPerOperation() throws Exception {
+        ResultDispatcher dispatcher = new ResultDispatcher();
+        ArrayList<String> delivered = new ArrayList<>();
+        CountDownLatch isBusy = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        dispatcher.setProgressCallback(new IProgressCallback() {
+            @Override
+            public void onProgress(long requestId, int reqCode, Bundle progress) {
+                isBusy.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (delivered) {
+                    delivered.add(requestId + " " + reqCode + " " + progress.getLong("handled"));
+                }
+                done.countDown();
+            }
+
+            @Override
+            public IBinder asBinder() {
+                return null;
+            }
+        });
+        IProgressCallback copy = dispatcher.getQueue(1);
+        IProgressCallback duplicates = dispatcher.getQueue(2);
+
+        copy.onProgress(SERVER_ID, INTERNAL_COPY, progress(1));
+        assertTrue(isBusy.await(5, TimeUnit.SECONDS));
+        copy.onProgress(SERVER_ID, INTERNAL_COPY, progress(2));
+        duplicates.onProgress(SERVER_ID, FIND_DUPLICATES, progress(10));
+        copy.onProgress(SERVER_ID, INTERNAL_COPY, progress(3));
+        duplicates.onProgress(SERVER_ID, FIND_DUPLICATES, progress(11));
+        release.countDown();
+
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        synchronized (delivered) {
+            assertEquals(Arrays.asList(SERVER_ID + " " + INTERNAL_COPY + " 1", SERVER_ID + " " + INTERNAL_COPY + " 3", SERVER_ID + " " + FIND_DUPLICATES + " 11"), delivered);
+        }
+    }
+
+    private static Bundle progress(long handled) {
+        Bundle progress = new Bundle();
+        progress.putLong("handled", handled);
+        return progress;
+    }
+}
@@ -0,0 +1,195 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+//copies into a writable folder, so the DirectSink is used, from streams that are no FileInputStream, so zero blocks are found by scanning
+public class SparseCopyTest {
+    private static final int BLOCK = 4096;
+
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+
+    @Test
+    public void holesAtStartMiddleAndEnd() throws Exception {
+        //blocks: 3 zero, 2 data, 4 zero, 1 data, 5 zero and a zero tail shorter than a block
+        byte[] source = source(3, 2, 4, 1, 5);
+        source = Arrays.copyOf(source, source.length + 100);
+        File dst = new File(mFolder.getRoot(), "dst");
+
+        SparseCopy.Stats stats = SparseCopy.copy(new ByteArrayInputStream(source), dst.getPath(), 0, null, 0, handled -> {
+        });
+
+        assertArrayEquals(source, Files.readAllBytes(dst.toPath()));
+        assertEquals(source.length, stats.size);
+        assertEquals(source.length, stats.bytesRead);
+        assertEquals(3 * BLOCK, stats.bytesWritten);
+        assertDiskUsage(dst, stats.bytesWritten);
+    }
+
+    @Test
+    public void onlyZeros() throws Exception {
+        byte[] source = new byte[10 * BLOCK];
+        File dst = new File(mFolder.getRoot(), "dst");
+
+        SparseCopy.Stats stats = SparseCopy.copy(new ByteArrayInputStream(source), dst.getPath(), 0, null, 0, handled -> {
+        });
+
+        assertEquals(source.length, dst.length());
+        assertArrayEquals(source, Files.readAllBytes(dst.toPath()));
+        assertEquals(source.length, stats.bytesRead);
+        assertEquals(0, stats.bytesWritten);
+        assertDiskUsage(dst, 0);
+    }
+
+    //reads that don't line up with blocks only lose holes, never bytes
+    @Test
+    public void unalignedReads() throws Exception {
+        byte[] source = source(1, 3, 2, 1);
+        File dst = new File(mFolder.getRoot(), "dst");
+
+        SparseCopy.Stats stats = SparseCopy.copy(new ChunkedInputStream(source, 1000), dst.getPath(), 0, null, 0, handled -> {
+        });
+
+        assertArrayEquals(source, Files.readAllBytes(dst.toPath()));
+        assertEquals(source.length, stats.size);
+        assertEquals(source.length, stats.bytesRead);
+        assertTrue(stats.bytesWritten <= source.length);
+    }
+
+    //stale bytes behind the offset are cut off, so the holes written after it read back as zeros
+    @Test
+    public void resumeOffset() throws Exception {
+        byte[] source = source(2, 2, 3, 1, 2);
+        File dst = new File(mFolder.getRoot(), "dst");
+        byte[] stale = new byte[source.length];
+        Arrays.fill(stale, (byte) 0x55);
+        System.arraycopy(source, 0, stale, 0, 4 * BLOCK);
+        write(dst, stale);
+
+        SparseCopy.Stats stats = SparseCopy.copy(new ByteArrayInputStream(source), dst.getPath(), 4 * BLOCK, null, 0, handled -> {
+        });
+
+        assertArrayEquals(source, Files.readAllBytes(dst.toPath()));
+        assertEquals(source.length, stats.size);
+        assertEquals(source.length - 4 * BLOCK, stats.bytesRead);
+        assertEquals(BLOCK, stats.bytesWritten);
+    }
+
+    //a destination shorter than the offset continues where it ends
+    @Test
+    public void resumeOffsetBehindDestination() throws Exception {
+        byte[] source = source(0, 6, 2);
+        File dst = new File(mFolder.getRoot(), "dst");
+        write(dst, Arrays.copyOf(source, 2 * BLOCK));
+
+        SparseCopy.Stats stats = SparseCopy.copy(new ByteArrayInputStream(source), dst.getPath(), 5 * BLOCK, null, 0, handled -> {
+        });
+
+        assertArrayEquals(source, Files.readAllBytes(dst.toPath()));
+        assertEquals(source.length - 2 * BLOCK, stats.bytesRead);
+        assertEquals(4 * BLOCK, stats.bytesWritten);
+    }
+
+    @Test
+    public void progressReachesSize() throws Exception {
+        byte[] source = source(40, 1, 40);
+        File dst = new File(mFolder.getRoot(), "dst");
+        long[] handled = new long[1];
+
+        SparseCopy.copy(new ByteArrayInputStream(source), dst.getPath(), 0, null, 0, size -> {
+            assertTrue(size > handled[0]);
+            handled[0] = size;
+        });
+
+        assertEquals(source.length, handled[0]);
+    }
+
+    //alternating runs of zero and data blocks, starting with zeros, data blocks are filled with their block number
+    private static byte[] source(int... runs) {
+        int blocks = 0;
+        for (int run : runs) blocks += run;
+        byte[] source = new byte[blocks * BLOCK];
+        int block = 0;
+        for (int i = 0; i < runs.length; i++) {
+            for (int j = 0; j < runs[i]; j++, block++) {
+                if (i % 2 == 1) Arrays.fill(source, block * BLOCK, (block + 1) * BLOCK, (byte) (block + 1));
+            }
+        }
+        return source;
+    }
+
+    private static void write(File file, byte[] bytes) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(bytes);
+        }
+    }
+
+    //only checked where the temp folder keeps holes and du is there
+    private void assertDiskUsage(File file, long written) throws Exception {
+        File reference = mFolder.newFile();
+        try (RandomAccessFile sparse = new RandomAccessFile(reference, "rw")) {
+            sparse.setLength(64 * BLOCK);
+        }
+        long referenceUsage = diskUsage(reference);
+        assumeTrue("no holes in " + mFolder.getRoot(), referenceUsage == 0);
+
+        long usage = diskUsage(file);
+        assertTrue("uses " + usage + " bytes for " + written + " written", usage >= written && usage <= written + BLOCK);
+        assertTrue(usage < file.length());
+    }
+
+    private static long diskUsage(File file) throws Exception {
+        Process process;
+        try {
+            process = new ProcessBuilder("du", "-k", file.getPath()).redirectErrorStream(true).start();
+        } catch (IOException e) {
+            assumeTrue("no du", false);
+            return -1;
+        }
+        String output = new String(process.getInputStream().readAllBytes(), StandardCharsets.UTF_8).trim();
+        assumeTrue(output, process.waitFor() == 0);
+        return Long.parseLong(output.split("\\s+")[0]) * 1024;
+    }
+
+    private static class ChunkedInputStream extends InputStream {
+        final byte[] mBytes;
+        final int mChunk;
+        int mPosition;
+
+        ChunkedInputStream(byte[] bytes, int chunk) {
+            mBytes = bytes;
+            mChunk = chunk;
+        }
+
+        @Override
+        public int read() {
+            return mPosition < mBytes.length ? mBytes[mPosition++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) {
+            if (mPosition == mBytes.length) return -1;
+            int n = Math.min(Math.min(len, mChunk), mBytes.length - mPosition);
+            System.arraycopy(mBytes, mPosition, buf, off, n);
+            mPosition += n;
+            return n;
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package com.samsung.android.app.networkstoragemanager;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import android.os.Bundle;
+import android.os.IBinder;
+
+import com.samsung.android.app.networkstoragemanager.libsupport.IProgressCallback;
+import com.samsung.android.app.networkstoragemanager.libsupport.RequestCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+//a folder copied through tar leaves a checkpoint a retry file by file can continue from
+@RunWith(RobolectricTestRunner.class)
+@Config(sdk = 34) //robolectric needs java 21 for sdk 35, the build uses 17
+public class TarTransferTest implements RequestCode {
+    @Rule
+    public TemporaryFolder mFolder = new TemporaryFolder();
+    private String mSourcePath;
+    private String mDstFolderPath;
+    private String mDstPath;
+
+    @Before
+    public void setUp() throws IOException {
+        RootProcess.init(RuntimeEnvironment.getApplication());
+        assumeTrue(TarTransfer.isAvailable());
+        File source = mFolder.newFolder("source");
+        assertTrue(new File(source, "sub/deep").mkdirs());
+        assertTrue(new File(source, "empty").mkdir());
+        write(new File(source, "a.bin"), 100 * 1024, 1);
+        write(new File(source, "sub/b.bin"), 10, 2);
+        write(new File(source, "sub/deep/c.bin"), 0, 3);
+        mSourcePath = source.getPath();
+        mDstFolderPath = mFolder.newFolder("dst").getPath();
+        mDstPath = mDstFolderPath + "/source";
+    }
+
+    @Test
+    public void checkpointHasEveryEntry() {
+        CopyCheckpoint checkpoint = new CopyCheckpoint();
+        assertTrue(copy(checkpoint).isSuccess);
+
+        assertTrue(checkpoint.isFolderCreated(mDstPath));
+        assertTrue(checkpoint.isFolderCreated(mDstPath + "/sub"));
+        assertTrue(checkpoint.isFolderCreated(mDstPath + "/sub/deep"));
+        assertTrue(checkpoint.isFolderCreated(mDstPath + "/empty"));
+        assertEquals(100 * 1024, checkpoint.getCompletedSize(mDstPath + "/a.bin"));
+        assertEquals(10, checkpoint.getCompletedSize(mDstPath + "/sub/b.bin"));
+        assertEquals(0, checkpoint.getCompletedSize(mDstPath + "/sub/deep/c.bin"));
+        assertEquals(100 * 1024 + 10, checkpoint.getCompletedBytes());
+    }
+
+    //the retry goes file by file, accepts the folders tar made and copies only what is not in the checkpoint
+    @Test
+    public void retrySkipsCompletedEntries() throws IOException {
+        CopyCheckpoint checkpoint = new CopyCheckpoint();
+        assertTrue(copy(checkpoint).isSuccess);
+        File copied = new File(mDstPath, "a.bin");
+        byte[] marker = write(copied, 100 * 1024, 9); //same size, other bytes, it is not copied again
+        byte[] added = write(new File(mSourcePath, "sub/deep/d.bin"), 20, 4);
+
+        FileManager.twoReturn t = copy(checkpoint);
+
+        assertTrue(t.isSuccess);
+        assertEquals(100 * 1024 + 10 + 20, t.progress);
+        assertArrayEquals(marker, Files.readAllBytes(copied.toPath()));
+        assertArrayEquals(added, Files.readAllBytes(new File(mDstPath, "sub/deep/d.bin").toPath()));
+    }
+
+    //without a checkpoint the copy is the same
+    @Test
+    public void copyWithoutCheckpoint() throws IOException {
+        assertTrue(copy(null).isSuccess);
+        assertArrayEquals(Files.readAllBytes(new File(mSourcePath, "a.bin").toPath()), Files.readAllBytes(new File(mDstPath, "a.bin").toPath()));
+        assertTrue(new File(mDstPath, "empty").isDirectory());
+        assertFalse(new File(mDstPath, "sub/deep/d.bin").exists());
+    }
+
+    private FileManager.twoReturn copy(CopyCheckpoint checkpoint) {
+        return FileManager.copy(mSourcePath, mDstFolderPath, "source", new ProgressCallback(), 1, INTERNAL_COPY, 0, checkpoint, null, null, new AtomicBoolean());
+    }
+
+    private static byte[] write(File file, int size, int value) throws IOException {
+        byte[] data = new byte[size];
+        Arrays.fill(data, (byte) value);
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return data;
+    }
+
+    private static class ProgressCallback implements IProgressCallback {
+        @Override
+        public void onProgress(long requestId, int reqCode, Bundle progress) {
+        }
+
+        @Override
+        public IBinder asBinder() {
+            return null;
+        }
+    }
+}